@@ -0,0 +1,159 @@
+package scratchlib.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import scratchlib.media.ScratchFormEncoder;
+import scratchlib.objects.ScratchObject;
+import scratchlib.objects.fixed.collections.ScratchObjectAbstractDictionary;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
+import scratchlib.objects.fixed.collections.ScratchObjectOrderedCollection;
+import scratchlib.objects.fixed.data.ScratchObjectSoundBuffer;
+import scratchlib.objects.fixed.data.ScratchObjectString;
+import scratchlib.objects.fixed.data.ScratchObjectSymbol;
+import scratchlib.objects.fixed.data.ScratchObjectUtf8;
+import scratchlib.objects.fixed.dimensions.ScratchObjectPoint;
+import scratchlib.objects.inline.ScratchObjectSmallInteger;
+import scratchlib.objects.user.media.ScratchObjectImageMedia;
+import scratchlib.objects.user.media.ScratchObjectMedia;
+import scratchlib.objects.user.media.ScratchObjectSampledSound;
+import scratchlib.objects.user.media.ScratchObjectSoundMedia;
+import scratchlib.objects.user.morphs.ScratchObjectListMorph;
+import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
+import scratchlib.objects.user.morphs.ScratchObjectSpriteMorph;
+import scratchlib.project.ScratchProject;
+import scratchlib.project.ScratchVersion;
+import scratchlib.writer.ScratchOutputStream;
+
+
+/**
+ * Generates synthetic projects of configurable size for the benchmarks. The
+ * generated content is deterministic, so that results are comparable between
+ * runs.
+ */
+public final class ProjectFixtures
+{
+    private static final int SCRIPTS_PER_SPRITE = 8;
+    private static final int BLOCKS_PER_SCRIPT = 20;
+    private static final int COSTUMES_PER_SPRITE = 2;
+    private static final int COSTUME_SIZE = 96;
+    private static final int SOUND_BYTES = 16 * 1024;
+    private static final int LIST_ITEMS = 200;
+
+    private ProjectFixtures()
+    {
+    }
+
+    /**
+     * Creates a project with the given number of sprites, each one having
+     * scripts, costumes, a sound and a list.
+     *
+     * @param sprites The number of sprites.
+     * @return The generated project.
+     */
+    public static ScratchProject create(int sprites)
+    {
+        Random random = new Random(sprites);
+
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+        for (int i = 0; i < sprites; ++i) {
+            project.getStage().addSprite(createSprite(i, random));
+        }
+
+        return project;
+    }
+
+    /**
+     * Serializes the given project.
+     *
+     * @param project The project to serialize.
+     * @return The project file contents.
+     * @throws IOException
+     */
+    public static byte[] toBytes(ScratchProject project) throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        project.writeTo(new ScratchOutputStream(bout));
+        return bout.toByteArray();
+    }
+
+    private static ScratchObjectSpriteMorph createSprite(int index, Random random)
+    {
+        ScratchObjectSpriteMorph sprite = new ScratchObjectSpriteMorph();
+        sprite.setName("Sprite" + index);
+
+        for (int i = 0; i < SCRIPTS_PER_SPRITE; ++i) {
+            sprite.addScript(new ScratchObjectPoint(20, 20 + 100 * i), createScriptBody(random));
+        }
+
+        ScratchObjectOrderedCollection media = new ScratchObjectOrderedCollection();
+        ScratchObjectImageMedia costume = null;
+        for (int i = 0; i < COSTUMES_PER_SPRITE; ++i) {
+            costume = createCostume("costume" + i, random);
+            media.add(costume);
+        }
+        media.add(createSound("sound", random));
+        sprite.setField(ScratchObjectScriptableMorph.FIELD_MEDIA, media);
+        sprite.setField(ScratchObjectScriptableMorph.FIELD_COSTUME, costume);
+
+        ScratchObjectListMorph list = new ScratchObjectListMorph();
+        list.setField(ScratchObjectListMorph.FIELD_LIST_NAME, new ScratchObjectUtf8("list"));
+        ScratchObjectArray items = new ScratchObjectArray();
+        for (int i = 0; i < LIST_ITEMS; ++i) {
+            items.add(new ScratchObjectUtf8("item " + random.nextInt(1000)));
+        }
+        list.setField(ScratchObjectListMorph.FIELD_CELL_MORPHS, items);
+        ((ScratchObjectAbstractDictionary) sprite.getField(ScratchObjectSpriteMorph.FIELD_LISTS))
+                .put(new ScratchObjectUtf8("list"), list);
+
+        return sprite;
+    }
+
+    private static ScratchObjectArray createScriptBody(Random random)
+    {
+        ScratchObjectArray body = new ScratchObjectArray();
+        for (int i = 0; i < BLOCKS_PER_SCRIPT; ++i) {
+            ScratchObject arg = random.nextBoolean()
+                    ? new ScratchObjectSmallInteger(random.nextInt(100))
+                    : new ScratchObjectString("arg" + random.nextInt(10));
+            ScratchObjectArray nested = new ScratchObjectArray(Arrays.asList(
+                    new ScratchObjectSymbol("+"), new ScratchObjectSmallInteger(i), arg));
+            body.add(new ScratchObjectArray(Arrays.asList(new ScratchObjectSymbol("forward:"), nested)));
+        }
+        return body;
+    }
+
+    private static ScratchObjectImageMedia createCostume(String name, Random random)
+    {
+        BufferedImage img = new BufferedImage(COSTUME_SIZE, COSTUME_SIZE, BufferedImage.TYPE_INT_ARGB);
+        int color = 0xFF000000 | random.nextInt(0xFFFFFF);
+        for (int y = COSTUME_SIZE / 4; y < COSTUME_SIZE * 3 / 4; ++y) {
+            for (int x = COSTUME_SIZE / 4; x < COSTUME_SIZE * 3 / 4; ++x) {
+                img.setRGB(x, y, (x + y) % 8 == 0 ? random.nextInt() : color);
+            }
+        }
+
+        ScratchObjectImageMedia costume = new ScratchObjectImageMedia();
+        costume.setField(ScratchObjectMedia.FIELD_MEDIA_NAME, new ScratchObjectUtf8(name));
+        costume.setField(ScratchObjectImageMedia.FIELD_FORM, ScratchFormEncoder.encode(img));
+        return costume;
+    }
+
+    private static ScratchObjectSoundMedia createSound(String name, Random random)
+    {
+        byte[] samples = new byte[SOUND_BYTES];
+        random.nextBytes(samples);
+
+        ScratchObjectSampledSound sampled = new ScratchObjectSampledSound();
+        sampled.setField(ScratchObjectSampledSound.FIELD_SAMPLES, new ScratchObjectSoundBuffer(samples));
+        sampled.setField(ScratchObjectSampledSound.FIELD_SAMPLES_SIZE, new ScratchObjectSmallInteger(SOUND_BYTES / 2));
+
+        ScratchObjectSoundMedia sound = new ScratchObjectSoundMedia();
+        sound.setField(ScratchObjectMedia.FIELD_MEDIA_NAME, new ScratchObjectUtf8(name));
+        sound.setField(ScratchObjectSoundMedia.FIELD_ORIGINAL_SOUND, sampled);
+        return sound;
+    }
+}
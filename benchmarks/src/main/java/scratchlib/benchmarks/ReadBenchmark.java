@@ -0,0 +1,85 @@
+package scratchlib.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scratchlib.project.ScratchProject;
+import scratchlib.reader.ScratchReader;
+
+
+/**
+ * Measures {@link ScratchReader} throughput for generated projects of
+ * increasing size, both from memory and from files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark
+{
+    @Param({ "1", "20", "200" })
+    public int sprites;
+
+    private byte[] bytes;
+    private Path file;
+    private final ScratchReader reader = new ScratchReader();
+    private final ScratchReader lazyReader = new ScratchReader();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        bytes = ProjectFixtures.toBytes(ProjectFixtures.create(sprites));
+        file = Files.createTempFile("scratchlib-bench", ".sb");
+        Files.write(file, bytes);
+        lazyReader.setLazyMedia(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public ScratchProject readInputStream() throws IOException
+    {
+        return reader.read(new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark
+    public ScratchProject readPath() throws IOException
+    {
+        return reader.read(file);
+    }
+
+    @Benchmark
+    public ScratchProject readPathLazyMedia() throws IOException
+    {
+        return lazyReader.read(file);
+    }
+
+    @Benchmark
+    public ScratchProject readInfo() throws IOException
+    {
+        return reader.readInfo(file);
+    }
+}
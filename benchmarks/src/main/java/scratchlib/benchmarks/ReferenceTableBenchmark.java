@@ -0,0 +1,65 @@
+package scratchlib.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scratchlib.objects.ScratchObject;
+import scratchlib.objects.ScratchReferenceTable;
+import scratchlib.project.ScratchProject;
+
+
+/**
+ * Measures building and querying {@link ScratchReferenceTable} instances for
+ * the stage of generated projects of increasing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReferenceTableBenchmark
+{
+    @Param({ "1", "20", "200" })
+    public int sprites;
+
+    private ScratchProject project;
+    private ScratchReferenceTable table;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        project = ProjectFixtures.create(sprites);
+        table = createReferences();
+    }
+
+    @Benchmark
+    public ScratchReferenceTable createReferences()
+    {
+        ScratchReferenceTable ref = new ScratchReferenceTable();
+        project.getStage().createReferences(ref, project);
+        return ref;
+    }
+
+    @Benchmark
+    public long lookupAll()
+    {
+        long sum = 0;
+        for (ScratchObject obj : table) {
+            sum += table.lookup(obj);
+        }
+        return sum;
+    }
+}
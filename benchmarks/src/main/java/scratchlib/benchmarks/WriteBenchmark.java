@@ -0,0 +1,86 @@
+package scratchlib.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scratchlib.project.ScratchProject;
+import scratchlib.reader.ScratchReader;
+import scratchlib.writer.ScratchOutputStream;
+import scratchlib.writer.ScratchWriter;
+
+
+/**
+ * Measures {@link ScratchWriter} and object store serialization throughput for
+ * generated projects of increasing size, as well as a full read-write round
+ * trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark
+{
+    @Param({ "1", "20", "200" })
+    public int sprites;
+
+    private ScratchProject project;
+    private byte[] bytes;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        project = ProjectFixtures.create(sprites);
+        bytes = ProjectFixtures.toBytes(project);
+        file = Files.createTempFile("scratchlib-bench", ".sb");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void writeFile() throws IOException
+    {
+        new ScratchWriter(file.toFile()).write(project);
+    }
+
+    @Benchmark
+    public int writeStageStore() throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(bytes.length);
+        project.getStageSection().writeTo(new ScratchOutputStream(bout), project);
+        return bout.size();
+    }
+
+    @Benchmark
+    public int roundTrip() throws IOException
+    {
+        ScratchProject read = new ScratchReader().read(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(bytes.length);
+        read.writeTo(new ScratchOutputStream(bout));
+        return bout.size();
+    }
+}
@@ -0,0 +1,600 @@
+package scratchlib.media;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import scratchlib.objects.ScratchObject;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
+import scratchlib.objects.fixed.colors.ScratchObjectColor;
+import scratchlib.objects.fixed.colors.ScratchObjectTranslucentColor;
+import scratchlib.objects.fixed.data.ScratchObjectByteArray;
+import scratchlib.objects.fixed.forms.ScratchObjectColorForm;
+import scratchlib.objects.fixed.forms.ScratchObjectForm;
+
+
+/**
+ * Class with static methods for decoding {@link ScratchObjectForm} and
+ * {@link ScratchObjectColorForm} instances into images, reversing Scratch's
+ * integer array encoding algorithm (see {@link ScratchFormEncoder}).
+ *
+ * <p>
+ * Pixels are decoded to ARGB values. Depths of 1, 2, 4 and 8 bits are indexed:
+ * color forms use their color map, regular forms use Squeak's fixed color
+ * table, in which index 0 is transparent. 16-bit pixels hold 5 bits per
+ * component, with 0 being transparent. 32-bit pixels are taken as they are.
+ *
+ * <p>
+ * Decoding works in place on the destination array, so apart from the
+ * result, nothing is allocated.
+ */
+public class ScratchFormDecoder
+{
+    /**
+     * Squeak's fixed color table for depths of 8 bits or less, as ARGB values.
+     */
+    private static final int[] INDEXED_COLORS = createIndexedColors();
+
+    private ScratchFormDecoder()
+    {
+    }
+
+    /**
+     * Decodes the given form as an image.
+     *
+     * @param form The form to decode.
+     * @return The decoded image.
+     * @throws IllegalArgumentException If the form's data is malformed.
+     */
+    public static BufferedImage decode(ScratchObjectForm form)
+    {
+        BufferedImage img = createImage(form.getWidth().intValue(), form.getHeight().intValue());
+        decodePixels(form, ((DataBufferInt) img.getRaster().getDataBuffer()).getData());
+        return img;
+    }
+
+    /**
+     * Decodes the given color form as an image.
+     *
+     * @param form The color form to decode.
+     * @return The decoded image.
+     * @throws IllegalArgumentException If the form's data is malformed.
+     */
+    public static BufferedImage decode(ScratchObjectColorForm form)
+    {
+        BufferedImage img = createImage(form.getWidth().intValue(), form.getHeight().intValue());
+        decodePixels(form, ((DataBufferInt) img.getRaster().getDataBuffer()).getData());
+        return img;
+    }
+
+    /**
+     * Decodes the given form into an array of ARGB pixel values, in row-major
+     * order. The given array is reused if it is large enough.
+     *
+     * @param form The form to decode.
+     * @param pixels The array to decode into, or null.
+     * @return The array holding the pixels, which is either the given one or a
+     *         new one of exactly width * height elements.
+     * @throws IllegalArgumentException If the form's data is malformed.
+     */
+    public static int[] decodePixels(ScratchObjectForm form, int[] pixels)
+    {
+        return decodePixels(form.getWidth().intValue(), form.getHeight().intValue(),
+                form.getDepth().intValue(), form.getBits(), INDEXED_COLORS, pixels);
+    }
+
+    /**
+     * Decodes the given color form into an array of ARGB pixel values, in
+     * row-major order. The given array is reused if it is large enough.
+     *
+     * @param form The color form to decode.
+     * @param pixels The array to decode into, or null.
+     * @return The array holding the pixels, which is either the given one or a
+     *         new one of exactly width * height elements.
+     * @throws IllegalArgumentException If the form's data is malformed.
+     */
+    public static int[] decodePixels(ScratchObjectColorForm form, int[] pixels)
+    {
+        return decodePixels(form.getWidth().intValue(), form.getHeight().intValue(),
+                form.getDepth().intValue(), form.getBits(), toPalette(form.getColorMap()), pixels);
+    }
+
+    /**
+     * Decodes the given form into an array of ARGB pixel values with the given
+     * row layout. Array elements outside of the rows are left unchanged.
+     *
+     * @param form The form to decode.
+     * @param pixels The array to decode into.
+     * @param offset The index of the top-left pixel.
+     * @param stride The distance between the starts of two rows.
+     * @throws IllegalArgumentException If the array is too small for the given
+     *             layout, or if the form's data is malformed.
+     */
+    public static void decodePixels(ScratchObjectForm form, int[] pixels, int offset, int stride)
+    {
+        int width = form.getWidth().intValue(), height = form.getHeight().intValue();
+        scatter(decodePixels(width, height, form.getDepth().intValue(), form.getBits(), INDEXED_COLORS,
+                direct(pixels, offset, width, height, stride)), pixels, offset, width, height, stride);
+    }
+
+    /**
+     * Decodes the given color form into an array of ARGB pixel values with
+     * the given row layout. Array elements outside of the rows are left
+     * unchanged.
+     *
+     * @param form The color form to decode.
+     * @param pixels The array to decode into.
+     * @param offset The index of the top-left pixel.
+     * @param stride The distance between the starts of two rows.
+     * @throws IllegalArgumentException If the array is too small for the given
+     *             layout, or if the form's data is malformed.
+     */
+    public static void decodePixels(ScratchObjectColorForm form, int[] pixels, int offset, int stride)
+    {
+        int width = form.getWidth().intValue(), height = form.getHeight().intValue();
+        scatter(decodePixels(width, height, form.getDepth().intValue(), form.getBits(),
+                toPalette(form.getColorMap()), direct(pixels, offset, width, height, stride)),
+                pixels, offset, width, height, stride);
+    }
+
+    /**
+     * Decodes the given form into a buffer of ARGB pixel values with the given
+     * row layout, starting at the buffer's position. The buffer's position is
+     * not changed, and elements outside of the rows are left unchanged.
+     * Pixels can be decoded into a (possibly direct) {@code ByteBuffer}
+     * through {@link ByteBuffer#asIntBuffer()}.
+     *
+     * @param form The form to decode.
+     * @param pixels The buffer to decode into.
+     * @param stride The distance between the starts of two rows.
+     * @throws IllegalArgumentException If the buffer is too small for the
+     *             given layout, or if the form's data is malformed.
+     */
+    public static void decodePixels(ScratchObjectForm form, IntBuffer pixels, int stride)
+    {
+        int width = form.getWidth().intValue(), height = form.getHeight().intValue();
+        if (pixels.hasArray()) {
+            decodePixels(form, pixels.array(), pixels.arrayOffset() + pixels.position(), stride);
+            return;
+        }
+        ScratchFormEncoder.checkLayout(pixels.limit(), pixels.position(), width, height, stride);
+        scatter(decodePixels(form, null), pixels, width, height, stride);
+    }
+
+    /**
+     * Decodes the given color form into a buffer of ARGB pixel values with
+     * the given row layout, starting at the buffer's position. The buffer's
+     * position is not changed, and elements outside of the rows are left
+     * unchanged.
+     *
+     * @param form The color form to decode.
+     * @param pixels The buffer to decode into.
+     * @param stride The distance between the starts of two rows.
+     * @throws IllegalArgumentException If the buffer is too small for the
+     *             given layout, or if the form's data is malformed.
+     */
+    public static void decodePixels(ScratchObjectColorForm form, IntBuffer pixels, int stride)
+    {
+        int width = form.getWidth().intValue(), height = form.getHeight().intValue();
+        if (pixels.hasArray()) {
+            decodePixels(form, pixels.array(), pixels.arrayOffset() + pixels.position(), stride);
+            return;
+        }
+        ScratchFormEncoder.checkLayout(pixels.limit(), pixels.position(), width, height, stride);
+        scatter(decodePixels(form, null), pixels, width, height, stride);
+    }
+
+    /**
+     * Decodes an array of words encoded with Scratch's integer array encoding
+     * algorithm. The word count stored in the data is only trusted once the
+     * runs following it are found to cover it.
+     *
+     * @param bytes The encoded bytes.
+     * @return The decoded words.
+     * @throws IllegalArgumentException If the data is malformed.
+     */
+    public static int[] decodeRaw(byte[] bytes)
+    {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        try {
+            int count = decodeInt(in);
+            if (count < 0) {
+                throw new IllegalArgumentException("negative word count");
+            }
+            checkRuns(in.duplicate(), count);
+
+            int[] words = new int[count];
+            decodeRuns(in, words, 0, words.length);
+            return words;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated data", e);
+        }
+    }
+
+    /**
+     * Decodes the encoded pixel words of a form and expands them to ARGB
+     * values.
+     *
+     * @param width The form's width.
+     * @param height The form's height.
+     * @param depth The form's depth.
+     * @param bits The form's encoded pixel words.
+     * @param palette The colors for indexed depths.
+     * @param pixels The array to decode into, or null.
+     * @return The array holding the pixels.
+     */
+    private static int[] decodePixels(int width, int height, int depth, ScratchObjectByteArray bits, int[] palette,
+            int[] pixels)
+    {
+        if (depth != 1 && depth != 2 && depth != 4 && depth != 8 && depth != 16 && depth != 32) {
+            throw new IllegalArgumentException("unsupported depth " + depth);
+        }
+
+        int count = width * height;
+        if (pixels == null || pixels.length < count) {
+            pixels = new int[count];
+        }
+
+        // the words are decoded into the end of the pixel array, from where
+        // they are expanded front to back; every pixel is written at or before
+        // the position of the word it is taken from
+        int wordsPerRow = (width * depth + 31) / 32;
+        int wordCount = wordsPerRow * height;
+        int base = count - wordCount;
+
+        ByteBuffer in = bits.getBuffer().order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (decodeInt(in) != wordCount) {
+                throw new IllegalArgumentException("word count does not match dimensions");
+            }
+            decodeRuns(in, pixels, base, wordCount);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated data", e);
+        }
+
+        if (depth == 16) {
+            expand16(pixels, base, width, height);
+        } else if (depth < 16) {
+            expandIndexed(pixels, base, width, height, depth, palette);
+        }
+
+        return pixels;
+    }
+
+    /**
+     * Checks the given row layout and determines whether pixels can be
+     * decoded directly into the array, which is the case if the rows are
+     * contiguous and start at index 0.
+     *
+     * @param pixels The destination array.
+     * @param offset The index of the top-left pixel.
+     * @param width The image width.
+     * @param height The image height.
+     * @param stride The distance between the starts of two rows.
+     * @return The array to decode into, or null if a new one is needed.
+     */
+    private static int[] direct(int[] pixels, int offset, int width, int height, int stride)
+    {
+        ScratchFormEncoder.checkLayout(pixels.length, offset, width, height, stride);
+        return offset == 0 && stride == width ? pixels : null;
+    }
+
+    /**
+     * Copies contiguous pixels into the given row layout, unless they have
+     * been decoded there directly.
+     *
+     * @param decoded The contiguous pixels.
+     * @param pixels The destination array.
+     * @param offset The index of the top-left pixel.
+     * @param width The image width.
+     * @param height The image height.
+     * @param stride The distance between the starts of two rows.
+     */
+    private static void scatter(int[] decoded, int[] pixels, int offset, int width, int height, int stride)
+    {
+        if (decoded == pixels) {
+            return;
+        }
+        for (int y = 0; y < height; ++y) {
+            System.arraycopy(decoded, y * width, pixels, offset + y * stride, width);
+        }
+    }
+
+    /**
+     * Copies contiguous pixels into the given row layout of a buffer.
+     *
+     * @param decoded The contiguous pixels.
+     * @param pixels The destination buffer.
+     * @param width The image width.
+     * @param height The image height.
+     * @param stride The distance between the starts of two rows.
+     */
+    private static void scatter(int[] decoded, IntBuffer pixels, int width, int height, int stride)
+    {
+        IntBuffer out = pixels.duplicate();
+        for (int y = 0; y < height; ++y) {
+            out.position(pixels.position() + y * stride);
+            out.put(decoded, y * width, width);
+        }
+    }
+
+    /**
+     * Decodes run-coded words into the given array.
+     *
+     * @param in The encoded runs.
+     * @param words The array to decode into.
+     * @param offset The index of the first word.
+     * @param count The number of words to decode.
+     */
+    private static void decodeRuns(ByteBuffer in, int[] words, int offset, int count)
+    {
+        /*
+         * Each run consists of N and D, where N = L << 2 | C:
+         *  C = 0: skip L words (they are 0), D is absent
+         *  C = 1: L words with all 4 bytes equal to D (1 byte)
+         *  C = 2: L words equal to D (4 bytes)
+         *  C = 3: L words follow in D (4 * L bytes)
+         */
+
+        int i = offset, end = offset + count;
+        while (i < end) {
+            int n = decodeInt(in);
+            int length = n >>> 2;
+            if (length > end - i) {
+                throw new IllegalArgumentException("run exceeds word count");
+            }
+
+            switch (n & 3) {
+                case 0:
+                    Arrays.fill(words, i, i + length, 0);
+                    break;
+                case 1:
+                    Arrays.fill(words, i, i + length, (in.get() & 0xFF) * 0x01010101);
+                    break;
+                case 2:
+                    Arrays.fill(words, i, i + length, in.getInt());
+                    break;
+                default:
+                    in.asIntBuffer().get(words, i, length);
+                    in.position(in.position() + 4 * length);
+                    break;
+            }
+            i += length;
+        }
+    }
+
+    /**
+     * Checks that the runs in the given buffer cover the given number of
+     * words, without decoding them.
+     *
+     * @param in The buffer to read from, which is consumed.
+     * @param count The number of words expected.
+     * @throws BufferUnderflowException If the runs end before reaching the
+     *             word count.
+     */
+    private static void checkRuns(ByteBuffer in, int count)
+    {
+        long words = 0;
+        while (words < count) {
+            int n = decodeInt(in);
+            long length = n >>> 2;
+
+            long data;
+            switch (n & 3) {
+                case 0:
+                    data = 0;
+                    break;
+                case 1:
+                    data = 1;
+                    break;
+                case 2:
+                    data = 4;
+                    break;
+                default:
+                    data = 4 * length;
+                    break;
+            }
+            if (data > in.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            in.position(in.position() + (int) data);
+            words += length;
+        }
+    }
+
+    /**
+     * Decodes a single integer encoded with Scratch's integer encoding
+     * algorithm (see {@link ScratchFormEncoder}).
+     *
+     * @param in The buffer to read from.
+     * @return The decoded integer.
+     */
+    private static int decodeInt(ByteBuffer in)
+    {
+        int b = in.get() & 0xFF;
+        if (b < 224) {
+            return b;
+        } else if (b < 255) {
+            return (b - 224) * 256 + (in.get() & 0xFF);
+        }
+        return in.getInt();
+    }
+
+    /**
+     * Expands 16-bit words in place to ARGB pixels.
+     *
+     * @param pixels The pixel array, holding the words starting at base.
+     * @param base The index of the first word.
+     * @param width The image width.
+     * @param height The image height.
+     */
+    private static void expand16(int[] pixels, int base, int width, int height)
+    {
+        int src = base, dst = 0;
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++src) {
+                int word = pixels[src];
+                pixels[dst++] = rgb555(word >>> 16);
+                if (++x < width) {
+                    pixels[dst++] = rgb555(word & 0xFFFF);
+                    ++x;
+                }
+            }
+        }
+    }
+
+    /**
+     * Expands indexed words in place to ARGB pixels.
+     *
+     * @param pixels The pixel array, holding the words starting at base.
+     * @param base The index of the first word.
+     * @param width The image width.
+     * @param height The image height.
+     * @param depth The bits per pixel (1, 2, 4 or 8).
+     * @param palette The colors to look up.
+     */
+    private static void expandIndexed(int[] pixels, int base, int width, int height, int depth, int[] palette)
+    {
+        int mask = (1 << depth) - 1;
+        int src = base, dst = 0;
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++src) {
+                int word = pixels[src];
+                for (int shift = 32 - depth; shift >= 0 && x < width; shift -= depth, ++x) {
+                    int index = (word >>> shift) & mask;
+                    pixels[dst++] = index < palette.length ? palette[index] : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a 16-bit pixel value to ARGB.
+     *
+     * @param value The pixel value (5 bits per component).
+     * @return The ARGB value.
+     */
+    private static int rgb555(int value)
+    {
+        if (value == 0) {
+            return 0;
+        }
+        int r = (value >>> 10) & 0x1F, g = (value >>> 5) & 0x1F, b = value & 0x1F;
+        return 0xFF000000 | (r << 3 | r >>> 2) << 16 | (g << 3 | g >>> 2) << 8 | (b << 3 | b >>> 2);
+    }
+
+    /**
+     * Converts a color form's color map to ARGB values. Entries that are not
+     * colors become transparent.
+     *
+     * @param colorMap The color map.
+     * @return The palette.
+     */
+    private static int[] toPalette(ScratchObjectArray colorMap)
+    {
+        int[] palette = new int[colorMap.size()];
+        for (int i = 0; i < palette.length; ++i) {
+            ScratchObject entry = colorMap.get(i);
+            if (entry instanceof ScratchObjectColor) {
+                ScratchObjectColor c = (ScratchObjectColor) entry;
+                palette[i] = argb(255, c.getRed(), c.getGreen(), c.getBlue());
+            } else if (entry instanceof ScratchObjectTranslucentColor) {
+                ScratchObjectTranslucentColor c = (ScratchObjectTranslucentColor) entry;
+                palette[i] = argb(c.getAlpha(), c.getRed(), c.getGreen(), c.getBlue());
+            }
+        }
+        return palette;
+    }
+
+    /**
+     * @param a The alpha value, ranging from 0 to 255.
+     * @param r The red value, ranging from 0 to 1023.
+     * @param g The green value, ranging from 0 to 1023.
+     * @param b The blue value, ranging from 0 to 1023.
+     * @return The ARGB value.
+     */
+    private static int argb(int a, int r, int g, int b)
+    {
+        // rounding makes this the exact inverse of scaling 0-255 up to 0-1023
+        return a << 24 | to8bit(r) << 16 | to8bit(g) << 8 | to8bit(b);
+    }
+
+    /**
+     * @param v The component value, ranging from 0 to 1023.
+     * @return The value scaled to range from 0 to 255.
+     */
+    private static int to8bit(int v)
+    {
+        return (v * 255 + 511) / 1023;
+    }
+
+    /**
+     * @param width The image width.
+     * @param height The image height.
+     * @return A new ARGB image of the given size.
+     */
+    private static BufferedImage createImage(int width, int height)
+    {
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Builds Squeak's fixed color table: transparent, black, white, gray, the
+     * primary and secondary colors, 24 more shades of gray, and a 6x6x6 color
+     * cube.
+     *
+     * @return The color table as ARGB values.
+     */
+    private static int[] createIndexedColors()
+    {
+        int[] colors = new int[256];
+
+        colors[0] = 0;
+        colors[1] = gray(0.0);
+        colors[2] = gray(1.0);
+        colors[3] = gray(0.5);
+        colors[4] = 0xFFFF0000;
+        colors[5] = 0xFF00FF00;
+        colors[6] = 0xFF0000FF;
+        colors[7] = 0xFF00FFFF;
+        colors[8] = 0xFFFFFF00;
+        colors[9] = 0xFFFF00FF;
+        colors[10] = gray(0.125);
+        colors[11] = gray(0.25);
+        colors[12] = gray(0.375);
+        colors[13] = gray(0.625);
+        colors[14] = gray(0.75);
+        colors[15] = gray(0.875);
+
+        int index = 16;
+        for (int v = 1; v < 32; ++v) {
+            if (v % 4 != 0) {
+                colors[index++] = gray(v / 32.0);
+            }
+        }
+
+        for (int r = 0; r < 6; ++r) {
+            for (int g = 0; g < 6; ++g) {
+                for (int b = 0; b < 6; ++b) {
+                    colors[40 + 36 * r + 6 * b + g] = 0xFF000000 | (r * 51) << 16 | (g * 51) << 8 | b * 51;
+                }
+            }
+        }
+
+        return colors;
+    }
+
+    /**
+     * @param level The gray level, ranging from 0 to 1.
+     * @return The opaque ARGB value.
+     */
+    private static int gray(double level)
+    {
+        int v = (int) Math.round(level * 255);
+        return 0xFF000000 | v << 16 | v << 8 | v;
+    }
+}
@@ -1,20 +1,49 @@
 package scratchlib.media;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
+import scratchlib.objects.ScratchObject;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
+import scratchlib.objects.fixed.colors.ScratchObjectColor;
+import scratchlib.objects.fixed.colors.ScratchObjectTranslucentColor;
 import scratchlib.objects.fixed.data.ScratchObjectByteArray;
+import scratchlib.objects.fixed.forms.ScratchObjectColorForm;
 import scratchlib.objects.fixed.forms.ScratchObjectForm;
 
 
 /**
  * Class with static methods for encoding images as {@link ScratchObjectForm}
- * instances, using Scratch's integer array encoding algorithm.
+ * and {@link ScratchObjectColorForm} instances, using Scratch's integer array
+ * encoding algorithm.
+ *
+ * <p>
+ * Color forms store an index into their color map for every pixel, packed at
+ * 1, 2, 4 or 8 bits per pixel, and are therefore only possible for images with
+ * at most 256 colors. Images with more colors can be quantized for encoding
+ * as color forms, at some loss of quality.
  */
 public class ScratchFormEncoder
 {
+    /**
+     * The maximum number of colors in a color form's color map.
+     */
+    public static final int MAX_COLORS = 256;
+
+    /**
+     * The minimum number of words for which encoding is parallelized.
+     */
+    static final int PARALLEL_THRESHOLD = 65536;
+    /**
+     * The approximate number of words per band encoded in parallel.
+     */
+    private static final int BAND_SIZE = 16384;
+
     private ScratchFormEncoder()
     {
     }
@@ -35,6 +64,286 @@ public class ScratchFormEncoder
         return new ScratchObjectForm(w, h, (short) 32, bytes);
     }
 
+    /**
+     * Encodes the given ARGB pixel values as a 32-bit Scratch form object.
+     *
+     * @param pixels The array holding the pixel values.
+     * @param offset The index of the top-left pixel.
+     * @param width The image width.
+     * @param height The image height.
+     * @param stride The distance between the starts of two rows.
+     * @return The pixels encoded as a form.
+     * @throws IllegalArgumentException If the array is too small for the
+     *             given layout.
+     */
+    public static ScratchObjectForm encode(int[] pixels, int offset, int width, int height, int stride)
+    {
+        int[] words = gather(pixels, offset, width, height, stride);
+        return new ScratchObjectForm(width, height, 32, new ScratchObjectByteArray(encodeRaw(words, width)));
+    }
+
+    /**
+     * Encodes the given ARGB pixel values as a 32-bit Scratch form object,
+     * starting at the buffer's position. The buffer's position is not changed.
+     * Pixels in a (possibly direct) {@code ByteBuffer} can be encoded through
+     * {@link java.nio.ByteBuffer#asIntBuffer()}.
+     *
+     * @param pixels The buffer holding the pixel values.
+     * @param width The image width.
+     * @param height The image height.
+     * @param stride The distance between the starts of two rows.
+     * @return The pixels encoded as a form.
+     * @throws IllegalArgumentException If the buffer is too small for the
+     *             given layout.
+     */
+    public static ScratchObjectForm encode(IntBuffer pixels, int width, int height, int stride)
+    {
+        int[] words = gather(pixels, width, height, stride);
+        return new ScratchObjectForm(width, height, 32, new ScratchObjectByteArray(encodeRaw(words, width)));
+    }
+
+    /**
+     * Encodes the given image as a Scratch color form object. The image must
+     * not contain more than {@link #MAX_COLORS} colors.
+     *
+     * @param img The image to encode.
+     * @return The image encoded as a color form.
+     * @throws IllegalArgumentException If the image has too many colors.
+     */
+    public static ScratchObjectColorForm encodeColorForm(BufferedImage img)
+    {
+        return encodeColorForm(img, false);
+    }
+
+    /**
+     * Encodes the given image as a Scratch color form object. If the image
+     * contains more than {@link #MAX_COLORS} colors, it is quantized if
+     * allowed, or rejected otherwise.
+     *
+     * @param img The image to encode.
+     * @param quantize Whether to reduce the colors of images with too many.
+     * @return The image encoded as a color form.
+     * @throws IllegalArgumentException If the image has too many colors and
+     *             quantization is not allowed.
+     */
+    public static ScratchObjectColorForm encodeColorForm(BufferedImage img, boolean quantize)
+    {
+        int w = img.getWidth();
+        int h = img.getHeight();
+
+        int[] pixels = img.getRGB(0, 0, w, h, null, 0, w);
+
+        return encodeColorForm(pixels, w, h, quantize);
+    }
+
+    /**
+     * Encodes the given ARGB pixel values, in row-major order, as a Scratch
+     * color form object. Fully transparent pixels share a single transparent
+     * entry at index 0 of the color map. The depth is the smallest one that
+     * fits all colors.
+     *
+     * @param pixels The pixel values to encode.
+     * @param width The image width.
+     * @param height The image height.
+     * @param quantize Whether to reduce the colors of images with too many.
+     * @return The pixels encoded as a color form.
+     * @throws IllegalArgumentException If the dimensions do not match, or if
+     *             there are too many colors and quantization is not allowed.
+     */
+    public static ScratchObjectColorForm encodeColorForm(int[] pixels, int width, int height, boolean quantize)
+    {
+        if (width < 0 || height < 0 || pixels.length != width * height) {
+            throw new IllegalArgumentException("pixel count does not match dimensions");
+        }
+
+        ScratchPalette palette = ScratchPalette.create(pixels, MAX_COLORS, quantize);
+        if (palette == null) {
+            throw new IllegalArgumentException("more than " + MAX_COLORS + " colors");
+        }
+
+        int depth = palette.size() <= 2 ? 1 : palette.size() <= 4 ? 2 : palette.size() <= 16 ? 4 : 8;
+        int[] words = packIndices(pixels, width, height, depth, palette);
+
+        List<ScratchObject> colorMap = new ArrayList<>(palette.size());
+        for (int i = 0; i < palette.size(); ++i) {
+            colorMap.add(toColor(palette.getColor(i)));
+        }
+
+        byte[] bits = encodeRaw(words, (width * depth + 31) / 32);
+
+        return new ScratchObjectColorForm(width, height, depth, new ScratchObjectByteArray(bits),
+                new ScratchObjectArray(colorMap));
+    }
+
+    /**
+     * Encodes the given ARGB pixel values as a Scratch color form object, like
+     * {@link #encodeColorForm(int[], int, int, boolean)}, but with the given
+     * row layout.
+     *
+     * @param pixels The array holding the pixel values.
+     * @param offset The index of the top-left pixel.
+     * @param width The image width.
+     * @param height The image height.
+     * @param stride The distance between the starts of two rows.
+     * @param quantize Whether to reduce the colors of images with too many.
+     * @return The pixels encoded as a color form.
+     * @throws IllegalArgumentException If the array is too small for the
+     *             given layout, or if there are too many colors and
+     *             quantization is not allowed.
+     */
+    public static ScratchObjectColorForm encodeColorForm(int[] pixels, int offset, int width, int height,
+            int stride, boolean quantize)
+    {
+        return encodeColorForm(gather(pixels, offset, width, height, stride), width, height, quantize);
+    }
+
+    /**
+     * Encodes the given ARGB pixel values as a Scratch color form object,
+     * starting at the buffer's position. The buffer's position is not changed.
+     *
+     * @param pixels The buffer holding the pixel values.
+     * @param width The image width.
+     * @param height The image height.
+     * @param stride The distance between the starts of two rows.
+     * @param quantize Whether to reduce the colors of images with too many.
+     * @return The pixels encoded as a color form.
+     * @throws IllegalArgumentException If the buffer is too small for the
+     *             given layout, or if there are too many colors and
+     *             quantization is not allowed.
+     */
+    public static ScratchObjectColorForm encodeColorForm(IntBuffer pixels, int width, int height, int stride,
+            boolean quantize)
+    {
+        return encodeColorForm(gather(pixels, width, height, stride), width, height, quantize);
+    }
+
+    /**
+     * Collects the rows of the given layout into a contiguous array. If the
+     * layout already is the whole array, the array itself is returned.
+     *
+     * @param pixels The array holding the pixel values.
+     * @param offset The index of the top-left pixel.
+     * @param width The image width.
+     * @param height The image height.
+     * @param stride The distance between the starts of two rows.
+     * @return The contiguous pixels.
+     */
+    private static int[] gather(int[] pixels, int offset, int width, int height, int stride)
+    {
+        checkLayout(pixels.length, offset, width, height, stride);
+        if (offset == 0 && stride == width && pixels.length == width * height) {
+            return pixels;
+        }
+
+        int[] out = new int[width * height];
+        for (int y = 0; y < height; ++y) {
+            System.arraycopy(pixels, offset + y * stride, out, y * width, width);
+        }
+        return out;
+    }
+
+    /**
+     * Collects the rows of the given layout into a contiguous array.
+     *
+     * @param pixels The buffer holding the pixel values.
+     * @param width The image width.
+     * @param height The image height.
+     * @param stride The distance between the starts of two rows.
+     * @return The contiguous pixels.
+     */
+    private static int[] gather(IntBuffer pixels, int width, int height, int stride)
+    {
+        int offset = pixels.position();
+        checkLayout(pixels.limit(), offset, width, height, stride);
+
+        int[] out = new int[width * height];
+        IntBuffer in = pixels.duplicate();
+        for (int y = 0; y < height; ++y) {
+            in.position(offset + y * stride);
+            in.get(out, y * width, width);
+        }
+        return out;
+    }
+
+    /**
+     * Checks that a row layout fits into an array or buffer.
+     *
+     * @param length The array length or buffer limit.
+     * @param offset The index of the top-left pixel.
+     * @param width The image width.
+     * @param height The image height.
+     * @param stride The distance between the starts of two rows.
+     * @throws IllegalArgumentException If the layout does not fit.
+     */
+    static void checkLayout(int length, int offset, int width, int height, int stride)
+    {
+        if (width < 0 || height < 0 || stride < width || offset < 0) {
+            throw new IllegalArgumentException("invalid pixel layout");
+        }
+        if (height > 0 && (long) offset + (long) (height - 1) * stride + width > length) {
+            throw new IllegalArgumentException("pixel layout exceeds bounds");
+        }
+    }
+
+    /**
+     * Packs the palette indices of the given pixels into words, most
+     * significant bits first. Each row starts at a new word.
+     *
+     * @param pixels The pixel values.
+     * @param width The image width.
+     * @param height The image height.
+     * @param depth The bits per index (1, 2, 4 or 8).
+     * @param palette The palette to look up.
+     * @return The packed words.
+     */
+    private static int[] packIndices(int[] pixels, int width, int height, int depth, ScratchPalette palette)
+    {
+        int wordsPerRow = (width * depth + 31) / 32;
+        int[] words = new int[wordsPerRow * height];
+
+        // neighboring pixels are often equal, which saves the lookup
+        int lastPixel = 0, lastIndex = 0;
+        if (pixels.length > 0) {
+            lastPixel = pixels[0];
+            lastIndex = palette.indexOf(lastPixel);
+        }
+
+        int src = 0, dst = 0;
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++dst) {
+                int word = 0;
+                for (int shift = 32 - depth; shift >= 0 && x < width; shift -= depth, ++x) {
+                    int pixel = pixels[src++];
+                    if (pixel != lastPixel) {
+                        lastPixel = pixel;
+                        lastIndex = palette.indexOf(pixel);
+                    }
+                    word |= lastIndex << shift;
+                }
+                words[dst] = word;
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * @param argb An ARGB value.
+     * @return The Scratch color for it: an RGB color if it is opaque, or a
+     *         translucent color otherwise.
+     */
+    private static ScratchObject toColor(int argb)
+    {
+        int a = argb >>> 24;
+        int r = ((argb >>> 16) & 0xFF) * 1023 / 255;
+        int g = ((argb >>> 8) & 0xFF) * 1023 / 255;
+        int b = (argb & 0xFF) * 1023 / 255;
+        if (a == 255) {
+            return new ScratchObjectColor(r, g, b);
+        }
+        return new ScratchObjectTranslucentColor(r, g, b, a);
+    }
+
     /**
      * Encodes the given image with Scratch's encoding algorithm and returns a
      * byte array containing the resulting bytes.
@@ -49,12 +358,13 @@ public class ScratchFormEncoder
 
         int[] pixels = img.getRGB(0, 0, w, h, null, 0, w);
 
-        return new ScratchObjectByteArray(encodeRaw(pixels));
+        return new ScratchObjectByteArray(encodeRaw(pixels, w));
     }
 
     /**
      * Encodes an array of pixel values with Scratch's integer array encoding
-     * algorithm and returns the resulting bytes.
+     * algorithm and returns the resulting bytes. Large arrays are encoded in
+     * parallel on the common fork-join pool.
      *
      * @param pixels The array of pixel values to encode.
      * @return The encoded bytes.
@@ -64,9 +374,6 @@ public class ScratchFormEncoder
         /*
          * Algorithm purpose: Compress an array of ints.
          *
-         * Note that this implementation here is pretty lazy, in that it just
-         * writes one bulk of literal words without that much compression.
-         *
          * General steps:
          * 1) write amount of actual pixels
          * 2) write pairs of N and D:
@@ -80,46 +387,161 @@ public class ScratchFormEncoder
          *      If C = 2, then D is a 4-byte word.
          *      If C = 3, then D is L consecutive words.
          *
-         * As stated above, this implementation only writes one N (with
-         * L = pixel array length and C = 3), and then writes L words.
+         * Like Squeak's Bitmap>>compressToByteArray, this implementation
+         * writes runs of two or more equal words with C = 2, or with C = 1 if
+         * all 4 bytes of the word are equal (as in transparent areas). Single
+         * words of 4 equal bytes are written with C = 1 as well. Everything
+         * else is collected into literal runs with C = 3.
          */
 
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+        return encodeRaw(pixels, 1);
+    }
+
+    /**
+     * Encodes an array of pixel values with Scratch's integer array encoding
+     * algorithm. Large arrays are split into bands of whole rows, which are
+     * encoded in parallel.
+     *
+     * @param pixels The array of pixel values to encode.
+     * @param rowLength The number of words per row.
+     * @return The encoded bytes.
+     */
+    private static byte[] encodeRaw(int[] pixels, int rowLength)
+    {
+        if (pixels.length < PARALLEL_THRESHOLD || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            // worst case: every word costs 5 bytes (a 1-word literal run, or
+            // half of a 2-word equal run), plus up to 5 bytes for the count
+            byte[] out = new byte[5 + 5 * pixels.length];
+            int pos = encodeInt(pixels.length, out, 0);
+            pos = encodeRuns(pixels, 0, pixels.length, out, pos);
+            return Arrays.copyOf(out, pos);
+        }
+
+        // runs never cross band boundaries, so the bands' runs can simply be
+        // concatenated after the word count; boundaries are moved past runs
+        // of equal words to not split them
+        int bandSize = Math.max(1, BAND_SIZE / rowLength) * rowLength;
+        List<ForkJoinTask<byte[]>> bands = new ArrayList<>();
+        for (int first = 0, next; first < pixels.length; first = next) {
+            next = Math.min(first + bandSize, pixels.length);
+            while (next < pixels.length && pixels[next] == pixels[next - 1]) {
+                ++next;
+            }
+            final int start = first, end = next;
+            bands.add(ForkJoinPool.commonPool().submit(() -> {
+                byte[] out = new byte[5 * (end - start)];
+                return Arrays.copyOf(out, encodeRuns(pixels, start, end, out, 0));
+            }));
+        }
+
+        byte[] header = new byte[5];
+        int headerLength = encodeInt(pixels.length, header, 0);
+        List<byte[]> encoded = new ArrayList<>(bands.size());
+        int length = headerLength;
+        for (ForkJoinTask<byte[]> band : bands) {
+            byte[] bytes = band.join();
+            encoded.add(bytes);
+            length += bytes.length;
+        }
 
-            // write pixel count
-            out.write(encodeInt(pixels.length));
+        byte[] out = Arrays.copyOf(header, length);
+        int pos = headerLength;
+        for (byte[] bytes : encoded) {
+            System.arraycopy(bytes, 0, out, pos, bytes.length);
+            pos += bytes.length;
+        }
+        return out;
+    }
+
+    /**
+     * Encodes a range of words as runs, without the word count.
+     *
+     * @param pixels The array of pixel values to encode.
+     * @param start The index of the first word.
+     * @param end The index after the last word.
+     * @param out The array to write into, with room for 5 bytes per word.
+     * @param pos The position to write at.
+     * @return The position after the written bytes.
+     */
+    private static int encodeRuns(int[] pixels, int start, int end, byte[] out, int pos)
+    {
+        int k = start;
+        while (k < end) {
+            int word = pixels[k];
+            boolean eqBytes = isByteRepeated(word);
 
-            int runLength = pixels.length;
-            int dataCode = 3;
-            int n = runLength << 2 | dataCode;
-            // write N
-            out.write(encodeInt(n));
+            // scan for equal words
+            int j = k;
+            while (j + 1 < end && pixels[j + 1] == word) {
+                ++j;
+            }
 
-            // write D
-            ByteBuffer pixelBytes = ByteBuffer.allocate(4);
-            for (int pixel : pixels) {
-                pixelBytes.rewind();
-                pixelBytes.putInt(pixel);
-                out.write(pixelBytes.array());
+            if (j > k || eqBytes) {
+                int length = j - k + 1;
+                if (eqBytes) {
+                    pos = encodeInt(length << 2 | 1, out, pos);
+                    out[pos++] = (byte) word;
+                } else {
+                    pos = encodeInt(length << 2 | 2, out, pos);
+                    pos = encodeWord(word, out, pos);
+                }
+                k = j + 1;
+                continue;
             }
 
-            return out.toByteArray();
+            // scan for unequal words, stopping before a run or a repeated-byte
+            // word begins
+            j = k + 1;
+            while (j < end && !(j + 1 < end && pixels[j] == pixels[j + 1]) && !isByteRepeated(pixels[j])) {
+                ++j;
+            }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+            pos = encodeInt((j - k) << 2 | 3, out, pos);
+            for (int m = k; m < j; ++m) {
+                pos = encodeWord(pixels[m], out, pos);
+            }
+            k = j;
         }
 
-        return new byte[0];
+        return pos;
+    }
+
+    /**
+     * @param word The word to check.
+     * @return Whether all 4 bytes of the word are equal.
+     */
+    private static boolean isByteRepeated(int word)
+    {
+        return word == (word & 0xFF) * 0x01010101;
+    }
+
+    /**
+     * Writes a word in big-endian byte order.
+     *
+     * @param word The word to write.
+     * @param out The array to write into.
+     * @param pos The position to write at.
+     * @return The position after the written bytes.
+     */
+    private static int encodeWord(int word, byte[] out, int pos)
+    {
+        out[pos] = (byte) (word >>> 24);
+        out[pos + 1] = (byte) (word >>> 16);
+        out[pos + 2] = (byte) (word >>> 8);
+        out[pos + 3] = (byte) word;
+        return pos + 4;
     }
 
     /**
      * Encodes a single positive integer with Scratch's integer encoding
-     * algorithm and returns the resulting bytes.
+     * algorithm and writes the resulting bytes.
      *
      * @param i The positive integer to encode.
-     * @return The byte representation of the given integer.
+     * @param out The array to write into.
+     * @param pos The position to write at.
+     * @return The position after the written bytes.
      */
-    private static byte[] encodeInt(int i)
+    private static int encodeInt(int i, byte[] out, int pos)
     {
         if (i < 0) {
             throw new IllegalArgumentException("cannot encode negative values");
@@ -142,11 +564,15 @@ public class ScratchFormEncoder
          */
 
         if (i < 224) {
-            return new byte[] { (byte) i };
+            out[pos] = (byte) i;
+            return pos + 1;
         } else if (i <= (30 * 256 + 255)) {
-            return new byte[] { (byte) (224 + (i / 256)), (byte) (i % 256) };
+            out[pos] = (byte) (224 + (i / 256));
+            out[pos + 1] = (byte) (i % 256);
+            return pos + 2;
         } else {
-            return ByteBuffer.allocate(5).put((byte) 255).putInt(i).array();
+            out[pos] = (byte) 255;
+            return encodeWord(i, out, pos + 1);
         }
     }
 }
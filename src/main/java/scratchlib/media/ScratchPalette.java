@@ -0,0 +1,250 @@
+package scratchlib.media;
+
+import java.util.Arrays;
+
+
+/**
+ * Palette of at most a given number of ARGB colors for an array of pixels,
+ * mapping every pixel value to the index of its palette color.
+ *
+ * <p>
+ * Fully transparent pixels are treated as a single color, which always gets
+ * index 0. If the pixels contain more colors than allowed, they can be reduced
+ * with the median cut algorithm: the colors are split into boxes along their
+ * widest channel at the weighted median until there are enough boxes, and
+ * each box is represented by the weighted average of its colors.
+ */
+class ScratchPalette
+{
+    private final int[] colors;
+    private final int[] keys;
+    private final int[] indices;
+
+    private ScratchPalette(int[] colors, int[] keys, int[] indices)
+    {
+        this.colors = colors;
+        this.keys = keys;
+        this.indices = indices;
+    }
+
+    /**
+     * Creates a palette for the given pixels.
+     *
+     * @param pixels The ARGB pixel values.
+     * @param maxColors The maximum number of palette colors (at least 2).
+     * @param quantize Whether to reduce the colors if there are too many.
+     * @return The palette, or null if there are too many colors and
+     *         {@code quantize} is false.
+     */
+    public static ScratchPalette create(int[] pixels, int maxColors, boolean quantize)
+    {
+        // find distinct values and their counts
+        int[] keys = new int[pixels.length];
+        for (int i = 0; i < pixels.length; ++i) {
+            keys[i] = normalize(pixels[i]);
+        }
+        Arrays.sort(keys);
+
+        int[] counts = new int[pixels.length];
+        int size = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            if (size > 0 && keys[size - 1] == keys[i]) {
+                ++counts[size - 1];
+            } else {
+                keys[size] = keys[i];
+                counts[size++] = 1;
+            }
+        }
+        keys = Arrays.copyOf(keys, size);
+
+        boolean transparent = Arrays.binarySearch(keys, 0) >= 0;
+        int first = transparent ? 1 : 0;
+
+        if (size <= maxColors) {
+            int[] colors = new int[size];
+            int[] indices = new int[size];
+            int next = first;
+            for (int i = 0; i < size; ++i) {
+                int index = keys[i] == 0 ? 0 : next++;
+                colors[index] = keys[i];
+                indices[i] = index;
+            }
+            return new ScratchPalette(colors, keys, indices);
+        }
+
+        if (!quantize) {
+            return null;
+        }
+
+        // cut the colors other than transparent into boxes, tracked as
+        // ranges of a permutation of the keys
+        int[] order = new int[size - first];
+        for (int i = 0, j = 0; i < size; ++i) {
+            if (keys[i] != 0) {
+                order[j++] = i;
+            }
+        }
+
+        int maxBoxes = maxColors - first;
+        int[] boxStarts = new int[maxBoxes + 1];
+        int[] boxWidths = new int[maxBoxes];
+        int boxes = 1;
+        boxStarts[1] = order.length;
+        boxWidths[0] = widest(keys, order, 0, order.length);
+
+        while (boxes < maxBoxes) {
+            // split the box with the widest channel range
+            int best = 0;
+            for (int b = 1; b < boxes; ++b) {
+                if (boxWidths[b] > boxWidths[best]) {
+                    best = b;
+                }
+            }
+            if (boxWidths[best] >>> 8 == 0) {
+                break;
+            }
+
+            int lo = boxStarts[best], hi = boxStarts[best + 1];
+            int split = split(keys, counts, order, lo, hi, boxWidths[best] & 0xFF);
+
+            System.arraycopy(boxStarts, best + 1, boxStarts, best + 2, boxes - best);
+            System.arraycopy(boxWidths, best + 1, boxWidths, best + 2, boxes - best - 1);
+            boxStarts[best + 1] = split;
+            boxWidths[best] = widest(keys, order, lo, split);
+            boxWidths[best + 1] = widest(keys, order, split, hi);
+            ++boxes;
+        }
+
+        int[] colors = new int[first + boxes];
+        int[] indices = new int[size];
+        for (int b = 0; b < boxes; ++b) {
+            int index = first + b;
+            colors[index] = average(keys, counts, order, boxStarts[b], boxStarts[b + 1]);
+            for (int i = boxStarts[b]; i < boxStarts[b + 1]; ++i) {
+                indices[order[i]] = index;
+            }
+        }
+
+        return new ScratchPalette(colors, keys, indices);
+    }
+
+    /**
+     * @return The number of palette colors.
+     */
+    public int size()
+    {
+        return colors.length;
+    }
+
+    /**
+     * @param index The palette index.
+     * @return The ARGB color at the index.
+     */
+    public int getColor(int index)
+    {
+        return colors[index];
+    }
+
+    /**
+     * @param pixel An ARGB value occurring in the pixels the palette was
+     *            created for.
+     * @return The index of the palette color representing it.
+     */
+    public int indexOf(int pixel)
+    {
+        return indices[Arrays.binarySearch(keys, normalize(pixel))];
+    }
+
+    /**
+     * @param pixel An ARGB value.
+     * @return The value, or 0 if it is fully transparent.
+     */
+    private static int normalize(int pixel)
+    {
+        return (pixel >>> 24) == 0 ? 0 : pixel;
+    }
+
+    /**
+     * Finds the channel with the largest range of values within a box.
+     *
+     * @param keys The colors.
+     * @param order The permutation of the colors.
+     * @param lo The start of the box within the permutation.
+     * @param hi The end of the box within the permutation.
+     * @return The range shifted 8 bits to the left, OR'd with the channel's
+     *         bit offset.
+     */
+    private static int widest(int[] keys, int[] order, int lo, int hi)
+    {
+        int widest = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int min = 255, max = 0;
+            for (int i = lo; i < hi; ++i) {
+                int v = (keys[order[i]] >>> shift) & 0xFF;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            widest = Math.max(widest, (max - min) << 8 | shift);
+        }
+        return widest;
+    }
+
+    /**
+     * Sorts a box by the given channel and finds its weighted median.
+     *
+     * @param keys The colors.
+     * @param counts The number of pixels per color.
+     * @param order The permutation of the colors.
+     * @param lo The start of the box within the permutation.
+     * @param hi The end of the box within the permutation.
+     * @param shift The channel's bit offset.
+     * @return The start of the second half, between lo and hi (exclusive).
+     */
+    private static int split(int[] keys, int[] counts, int[] order, int lo, int hi, int shift)
+    {
+        long[] sorted = new long[hi - lo];
+        long total = 0;
+        for (int i = lo; i < hi; ++i) {
+            sorted[i - lo] = (long) ((keys[order[i]] >>> shift) & 0xFF) << 32 | order[i];
+            total += counts[order[i]];
+        }
+        Arrays.sort(sorted);
+
+        long sum = 0;
+        int split = -1;
+        for (int i = lo; i < hi; ++i) {
+            order[i] = (int) sorted[i - lo];
+            sum += counts[order[i]];
+            if (split < 0 && sum * 2 >= total) {
+                split = i + 1;
+            }
+        }
+
+        return Math.max(lo + 1, Math.min(split, hi - 1));
+    }
+
+    /**
+     * @param keys The colors.
+     * @param counts The number of pixels per color.
+     * @param order The permutation of the colors.
+     * @param lo The start of the box within the permutation.
+     * @param hi The end of the box within the permutation.
+     * @return The weighted average of the box's colors.
+     */
+    private static int average(int[] keys, int[] counts, int[] order, int lo, int hi)
+    {
+        long a = 0, r = 0, g = 0, b = 0, total = 0;
+        for (int i = lo; i < hi; ++i) {
+            int color = keys[order[i]];
+            long n = counts[order[i]];
+            a += n * (color >>> 24);
+            r += n * ((color >>> 16) & 0xFF);
+            g += n * ((color >>> 8) & 0xFF);
+            b += n * (color & 0xFF);
+            total += n;
+        }
+        long half = total / 2;
+        return (int) ((a + half) / total) << 24 | (int) ((r + half) / total) << 16
+                | (int) ((g + half) / total) << 8 | (int) ((b + half) / total);
+    }
+}
@@ -0,0 +1,88 @@
+package scratchlib.objects;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Receives events from {@link ScratchObjectStoreParser} while it walks through
+ * an object store. All methods do nothing by default, so implementations only
+ * need to override the events they are interested in.
+ *
+ * <p>
+ * For each record in the store, {@link #visitObjectStart(int, int)} is called,
+ * followed by events for its contents, followed by
+ * {@link #visitObjectEnd(int, int)}. The contents are reported in the order
+ * they are stored: fields either refer to other records
+ * ({@link #visitReference(int)}), are inline values
+ * ({@link #visitInline(ScratchObject)}), or, rarely, are complete objects
+ * nested into the record (reported with a reference ID of 0). Strings, byte
+ * arrays, sound buffers, bitmaps and colors report their raw payload through
+ * {@link #visitData(ByteBuffer)}.
+ */
+public interface IScratchObjectStoreVisitor
+{
+    /**
+     * Called once the store header has been read.
+     *
+     * @param size The number of records in the store.
+     */
+    default void visitStore(int size)
+    {
+    }
+
+    /**
+     * Called when a record or nested object begins.
+     *
+     * @param referenceID The record's reference ID, or 0 for nested objects.
+     * @param classID The object's class ID.
+     */
+    default void visitObjectStart(int referenceID, int classID)
+    {
+    }
+
+    /**
+     * Called for each field that refers to another record.
+     *
+     * @param referenceID The ID of the record referred to.
+     */
+    default void visitReference(int referenceID)
+    {
+    }
+
+    /**
+     * Called for each inline value (nil, booleans and numbers).
+     *
+     * @param value The decoded value.
+     */
+    default void visitInline(ScratchObject value)
+    {
+    }
+
+    /**
+     * Called with the raw payload of strings, byte arrays, sound buffers,
+     * bitmaps and colors. The buffer is only valid for the duration of the
+     * call.
+     *
+     * @param data The payload bytes.
+     */
+    default void visitData(ByteBuffer data)
+    {
+    }
+
+    /**
+     * Called when a record or nested object ends.
+     *
+     * @param referenceID The record's reference ID, or 0 for nested objects.
+     * @param classID The object's class ID.
+     */
+    default void visitObjectEnd(int referenceID, int classID)
+    {
+    }
+
+    /**
+     * Called once all records have been visited.
+     */
+    default void visitStoreEnd()
+    {
+    }
+}
@@ -0,0 +1,194 @@
+package scratchlib.objects;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.UnaryOperator;
+
+import scratchlib.objects.fixed.data.ScratchObjectAbstractBytes;
+import scratchlib.project.ScratchProject;
+
+
+/**
+ * Content-addressed store of media payloads, i.e. byte arrays, bitmaps and
+ * sound buffers, used for sharing a single instance among all payloads with
+ * equal contents.
+ *
+ * <p>
+ * {@link #deduplicate(ScratchProject)} rewrites a project such that every
+ * field holding a payload refers to the store's instance for its contents.
+ * Since the reference table contains every instance only once, each distinct
+ * payload is then written only once. A single store can be used for many
+ * projects, e.g. by batch tools, so that equal media share memory across
+ * projects as well.
+ *
+ * <p>
+ * Payloads are identified by a SHA-256 digest of their contents, so the keys
+ * keep no reference to the buffers they were read from. Computing the digest
+ * reads every payload once, which pages in lazily loaded media without
+ * materializing it. Shared instances are kept as they are: payloads read from
+ * heap buffers own their bytes, while lazily loaded ones stay backed by their
+ * file's mapping, and thus keep it alive, as long as the store holds them.
+ *
+ * <p>
+ * Shared payloads must not be modified through the arrays returned by their
+ * getters, since such changes would affect every user. Stores are safe for
+ * use by multiple threads.
+ */
+public class ScratchMediaStore
+{
+    private final ConcurrentMap<PayloadKey, ScratchObjectAbstractBytes> payloads = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the store's instance for the given payload's contents. If there
+     * is none yet, the given payload becomes that instance.
+     *
+     * @param payload The payload to look up.
+     * @param <T> The payload type.
+     * @return The shared instance, which has the same type and contents.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends ScratchObjectAbstractBytes> T intern(T payload)
+    {
+        ScratchObjectAbstractBytes shared = payloads.putIfAbsent(new PayloadKey(payload), payload);
+        return shared == null ? payload : (T) shared;
+    }
+
+    /**
+     * Makes all payload fields in both sections of the given project refer to
+     * this store's shared instances.
+     *
+     * @param project The project to deduplicate.
+     * @return The number of fields that were changed.
+     */
+    public int deduplicate(ScratchProject project)
+    {
+        return deduplicate(project.getInfoSection(), project) + deduplicate(project.getStageSection(), project);
+    }
+
+    /**
+     * Makes all payload fields of objects in the given store, including its
+     * root and orphaned fields, refer to this store's shared instances.
+     *
+     * <p>
+     * Fields are rewritten through
+     * {@link ScratchObject#replaceReferenceFields(java.util.function.UnaryOperator)},
+     * so the fields of objects whose class only overrides
+     * {@link ScratchObject#createReferences(ScratchReferenceTable, ScratchProject)}
+     * are left as they are.
+     *
+     * @param store The object store to deduplicate.
+     * @param project The project the store belongs to, for version info.
+     * @return The number of fields that were changed.
+     */
+    public int deduplicate(ScratchObjectStore store, ScratchProject project)
+    {
+        int[] changed = new int[1];
+        UnaryOperator<ScratchObject> replacement = obj -> {
+            if (!(obj instanceof ScratchObjectAbstractBytes)) {
+                return obj;
+            }
+            ScratchObject shared = intern((ScratchObjectAbstractBytes) obj);
+            if (shared != obj) {
+                ++changed[0];
+            }
+            return shared;
+        };
+
+        ScratchReferenceTable refTable = new ScratchReferenceTable();
+        store.get().createReferences(refTable, project);
+        List<ScratchObject> orphans = store.getOrphanedFields();
+        for (ScratchObject obj : orphans) {
+            obj.createReferences(refTable, project);
+        }
+
+        for (ScratchObject obj : refTable) {
+            obj.replaceReferenceFields(replacement);
+        }
+        orphans.replaceAll(replacement);
+        store.set(replacement.apply(store.get()));
+
+        return changed[0];
+    }
+
+    /**
+     * @return The number of distinct payloads stored.
+     */
+    public int size()
+    {
+        return payloads.size();
+    }
+
+    /**
+     * Removes all payloads from this store. Projects already deduplicated keep
+     * sharing their instances.
+     */
+    public void clear()
+    {
+        payloads.clear();
+    }
+
+    /**
+     * Identifies a payload by its type, length and contents digest.
+     */
+    private static final class PayloadKey
+    {
+        private final Class<?> type;
+        private final int length;
+        private final byte[] digest;
+        private final int hash;
+
+        /**
+         * @param payload The payload to identify.
+         */
+        public PayloadKey(ScratchObjectAbstractBytes payload)
+        {
+            ByteBuffer contents = payload.getBuffer();
+
+            this.type = payload.getClass();
+            this.length = contents.remaining();
+            this.digest = digest(contents);
+            this.hash = 31 * type.hashCode() + Arrays.hashCode(digest);
+        }
+
+        /**
+         * @param contents The bytes to digest.
+         * @return The SHA-256 digest of the bytes.
+         */
+        private static byte[] digest(ByteBuffer contents)
+        {
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                md.update(contents);
+                return md.digest();
+            } catch (NoSuchAlgorithmException e) {
+                // every Java platform is required to support SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PayloadKey)) {
+                return false;
+            }
+            PayloadKey other = (PayloadKey) obj;
+            return hash == other.hash && type == other.type && length == other.length
+                    && Arrays.equals(digest, other.digest);
+        }
+    }
+}
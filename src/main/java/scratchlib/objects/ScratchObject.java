@@ -1,8 +1,14 @@
 package scratchlib.objects;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.UnaryOperator;
 
 import scratchlib.project.ScratchProject;
+import scratchlib.project.ScratchVersion;
 import scratchlib.reader.ScratchInputStream;
 import scratchlib.writer.ScratchOutputStream;
 
@@ -19,8 +25,32 @@ public abstract class ScratchObject
      */
     public static final ScratchObject NIL = new ScratchObjectNil();
 
+    /**
+     * Whether a class overrides
+     * {@link #createReferences(ScratchReferenceTable, ScratchProject)}.
+     */
+    private static final ClassValue<Boolean> OVERRIDES_CREATE_REFERENCES = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type)
+        {
+            try {
+                return type.getMethod("createReferences", ScratchReferenceTable.class, ScratchProject.class)
+                        .getDeclaringClass() != ScratchObject.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
     private final int classID;
 
+    // original encoding, if read from a buffer and not modified since
+    private ByteBuffer source;
+    private int sourceOffset, sourceLength;
+    private int sourceReferenceID;
+    private ScratchVersion sourceVersion;
+    private Object sourceStore;
+
     /**
      * @param classID The ID of the class this object belongs to.
      */
@@ -37,20 +67,211 @@ public abstract class ScratchObject
         return classID;
     }
 
+    /**
+     * Returns whether this object needs to be encoded when it is written. This
+     * is the case unless the object was read from a buffer retaining records
+     * (see {@link ScratchObjectStore#readFrom(ScratchInputStream, ScratchProject)})
+     * and has not been modified since, in which case its original record can
+     * be copied instead.
+     *
+     * @return Whether this object is dirty.
+     */
+    public boolean isDirty()
+    {
+        return source == null;
+    }
+
+    /**
+     * Marks this object as modified, discarding its original encoding. This is
+     * done automatically by all mutators, including writable views and arrays
+     * handed out by getters; it only needs to be called after modifying an
+     * object through other means, e.g. reflection.
+     */
+    public void markDirty()
+    {
+        source = null;
+    }
+
+    /**
+     * Remembers where this object's record is stored in the buffer it was read
+     * from.
+     *
+     * @param buffer The buffer read from.
+     * @param offset The record's position in the buffer.
+     * @param length The record's length in bytes.
+     * @param referenceID The record's reference ID.
+     * @param version The version of the project read for.
+     * @param store A token identifying the store read, shared by all of its
+     *            records.
+     */
+    void setSource(ByteBuffer buffer, int offset, int length, int referenceID, ScratchVersion version, Object store)
+    {
+        this.source = buffer;
+        this.sourceOffset = offset;
+        this.sourceLength = length;
+        this.sourceReferenceID = referenceID;
+        this.sourceVersion = version;
+        this.sourceStore = store;
+    }
+
+    /**
+     * Provides this object's original record, if it can be copied verbatim
+     * instead of encoding the object. This requires the object to be clean,
+     * the project version to match, and both the object and every record it
+     * refers to to keep their original reference IDs. The records referred to
+     * must also have been read from the same store, since IDs are only
+     * meaningful within a store. Objects whose class
+     * overrides {@link #createReferences(ScratchReferenceTable, ScratchProject)}
+     * are always encoded, since their fields cannot be checked.
+     *
+     * @param ref The populated reference table.
+     * @param project The project this object belongs to, for version info.
+     * @param fields A list to use for collecting fields; cleared before use.
+     * @return The original record, or null if it cannot be reused.
+     */
+    ByteBuffer getReusableSource(ScratchReferenceTable ref, ScratchProject project, List<ScratchObject> fields)
+    {
+        if (source == null || sourceVersion != project.getVersion() || ref.lookup(this) != sourceReferenceID
+                || overridesCreateReferences()) {
+            return null;
+        }
+
+        fields.clear();
+        collectReferenceFields(fields, project);
+        for (ScratchObject field : fields) {
+            int id = ref.lookup(field);
+            if (id > 0 && (id != field.sourceReferenceID || field.sourceStore != sourceStore)) {
+                return null;
+            }
+        }
+
+        ByteBuffer record = source.duplicate();
+        record.limit(sourceOffset + sourceLength).position(sourceOffset);
+        return record;
+    }
+
     /**
      * Inserts this object and all its reference fields into the given table,
      * provided this object and the fields are reference types.
      *
+     * <p>
+     * The object graph is traversed depth-first with an explicit work stack
+     * instead of recursion, so arbitrarily deep nesting is supported. Objects
+     * are inserted in the same order a recursive pre-order traversal would
+     * insert them.
+     *
+     * <p>
+     * Subclasses should report their fields through
+     * {@link #collectReferenceFields(List, ScratchProject)} instead of
+     * overriding this method. Overrides are still honored: objects whose class
+     * overrides this method are handed to it during the traversal, which then
+     * recurses for them. Reading falls back to building a reference table for
+     * finding orphaned records, and the records of such objects are never
+     * copied verbatim on writing. Their fields are not rewritten by
+     * {@link #replaceReferenceFields(UnaryOperator)} unless they override that
+     * method as well.
+     *
      * @param ref The reference table.
      * @param project The project this object belongs to, for version info.
      * @return Whether anything was inserted.
      */
     public boolean createReferences(ScratchReferenceTable ref, ScratchProject project)
     {
-        if (this instanceof IScratchReferenceType) {
-            return ref.insert(this);
+        if (!(this instanceof IScratchReferenceType) || !ref.insert(this)) {
+            return false;
+        }
+
+        List<ScratchObject> stack = new ArrayList<>();
+        pushReferenceFields(stack, project);
+
+        while (!stack.isEmpty()) {
+            ScratchObject obj = stack.remove(stack.size() - 1);
+            if (obj.overridesCreateReferences()) {
+                obj.createReferences(ref, project);
+            } else if (obj instanceof IScratchReferenceType && ref.insert(obj)) {
+                obj.pushReferenceFields(stack, project);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Whether this object's class overrides
+     *         {@link #createReferences(ScratchReferenceTable, ScratchProject)}.
+     */
+    final boolean overridesCreateReferences()
+    {
+        return OVERRIDES_CREATE_REFERENCES.get(getClass());
+    }
+
+    /**
+     * Pushes this object's fields onto the given work stack, such that the
+     * first field ends up on top.
+     *
+     * @param stack The work stack.
+     * @param project The project this object belongs to, for version info.
+     */
+    private void pushReferenceFields(List<ScratchObject> stack, ScratchProject project)
+    {
+        int start = stack.size();
+        collectReferenceFields(stack, project);
+        Collections.reverse(stack.subList(start, stack.size()));
+    }
+
+    /**
+     * Adds all objects stored in this object's fields to the given list, in
+     * the order they are written out. Used for building reference tables.
+     *
+     * <p>
+     * Subclasses MUST override this if they have any (additional) fields that
+     * can hold reference types.
+     *
+     * @param fields The list to add the field values to.
+     * @param project The project this object belongs to, for version info.
+     *
+     * @see #createReferences(ScratchReferenceTable, ScratchProject)
+     */
+    protected void collectReferenceFields(List<ScratchObject> fields, ScratchProject project)
+    {
+    }
+
+    /**
+     * Replaces the objects stored in this object's fields by the results of
+     * the given function, marking this object dirty if any field changes.
+     * Used for rewriting object graphs, e.g. to share equal objects.
+     *
+     * <p>
+     * Subclasses MUST override this if they have any (additional) fields that
+     * can hold reference types.
+     *
+     * @param replacement The function mapping a field value to its
+     *            replacement, or to itself to keep it.
+     */
+    protected void replaceReferenceFields(UnaryOperator<ScratchObject> replacement)
+    {
+    }
+
+    /**
+     * Applies the given replacement function to a single field. If the value
+     * is replaced, this object is marked dirty.
+     *
+     * @param field The field.
+     * @param replacement The replacement function.
+     * @return The field itself if unchanged, or a new field holding the
+     *         replacement.
+     *
+     * @see #replaceReferenceFields(UnaryOperator)
+     */
+    protected final ScratchOptionalField replaceField(ScratchOptionalField field,
+            UnaryOperator<ScratchObject> replacement)
+    {
+        ScratchObject value = field.get(), replaced = replacement.apply(value);
+        if (replaced == value) {
+            return field;
         }
-        return false;
+        markDirty();
+        return new ScratchOptionalField(replaced);
     }
 
     /**
@@ -1,10 +1,21 @@
 package scratchlib.objects;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import scratchlib.project.ScratchProject;
+import scratchlib.reader.ScratchByteBufferInputStream;
 import scratchlib.reader.ScratchInputStream;
 import scratchlib.writer.ScratchOutputStream;
 
@@ -38,9 +49,23 @@ public class ScratchObjectStore
      */
     public static final String HEADER = "ObjS" + (char) 1 + "Stch" + (char) 1;
 
+    /**
+     * The minimum number of objects for which encoding and decoding are
+     * parallelized.
+     */
+    static final int PARALLEL_THRESHOLD = 8192;
+    /**
+     * The number of consecutive objects encoded or decoded per parallel task.
+     */
+    private static final int CHUNK_SIZE = 1024;
+
     private ScratchObject object;
     private List<ScratchObject> orphanedFields;
 
+    // all objects in the order they were read, if read
+    private List<ScratchObject> originalOrder;
+    private boolean preserveReferenceIDs;
+
     /**
      * @param object The object contained in this store.
      */
@@ -98,12 +123,43 @@ public class ScratchObjectStore
         this.orphanedFields = orphans;
     }
 
+    /**
+     * @return Whether reference IDs read are preserved when writing.
+     *
+     * @see #setPreserveReferenceIDs(boolean)
+     */
+    public boolean isPreserveReferenceIDs()
+    {
+        return preserveReferenceIDs;
+    }
+
+    /**
+     * Sets whether objects shall keep the reference IDs they were read with
+     * when this store is written. The default is false, in which case IDs are
+     * assigned in traversal order.
+     *
+     * <p>
+     * When enabled, objects are written in the order they were read, skipping
+     * those no longer contained in the store; objects added since are
+     * appended in traversal order. Unchanged stores are thus written exactly
+     * as they were read, and a change only affects the IDs of the objects
+     * following removed ones. This has no effect on stores that were not read.
+     *
+     * @param preserveReferenceIDs Whether to preserve reference IDs.
+     */
+    public void setPreserveReferenceIDs(boolean preserveReferenceIDs)
+    {
+        this.preserveReferenceIDs = preserveReferenceIDs;
+    }
+
     /**
      * Writes this object store to the given {@link ScratchOutputStream}.
      *
      * @param out The stream to write to.
      * @param project The project this store belongs to, for version info.
      * @throws IOException
+     *
+     * @see #setPreserveReferenceIDs(boolean)
      */
     public void writeTo(ScratchOutputStream out, ScratchProject project) throws IOException
     {
@@ -113,23 +169,171 @@ public class ScratchObjectStore
         for (ScratchObject object : orphanedFields) {
             object.createReferences(refTable, project);
         }
+        if (preserveReferenceIDs && originalOrder != null) {
+            refTable = restoreOriginalOrder(refTable);
+        }
 
         // write header + size
         out.writeString(HEADER);
         out.write32bitUnsignedInt(refTable.size());
 
         // write objects from reference table
-        for (ScratchObject object : refTable) {
-            object.writeTo(out, refTable, project);
+        if (refTable.size() < PARALLEL_THRESHOLD || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            List<ScratchObject> fields = new ArrayList<>();
+            for (ScratchObject object : refTable) {
+                writeRecord(object, out, refTable, project, fields);
+            }
+        } else {
+            writeObjectsParallel(out, refTable, project);
         }
 
         out.flush();
     }
 
+    /**
+     * Reorders the given reference table such that objects that were read
+     * come first, in the order they were read, followed by all other objects.
+     * The root object always comes first.
+     *
+     * @param traversal The reference table in traversal order.
+     * @return The reordered reference table.
+     */
+    private ScratchReferenceTable restoreOriginalOrder(ScratchReferenceTable traversal)
+    {
+        ScratchReferenceTable refTable = new ScratchReferenceTable();
+        refTable.insert(object);
+        for (ScratchObject obj : originalOrder) {
+            if (traversal.lookup(obj) > 0) {
+                refTable.insert(obj);
+            }
+        }
+        for (ScratchObject obj : traversal) {
+            refTable.insert(obj);
+        }
+        return refTable;
+    }
+
+    /**
+     * Writes all objects from the given reference table by encoding chunks of
+     * consecutive objects in parallel on the common fork-join pool, and then
+     * writing the chunks out in order. Since an object's encoding depends only
+     * on the object itself and the (fully populated) reference table, the
+     * result is identical to writing the objects one by one. Only a limited
+     * number of chunks is in flight at any time.
+     *
+     * @param out The stream to write to.
+     * @param refTable The populated reference table.
+     * @param project The project this store belongs to, for version info.
+     * @throws IOException
+     */
+    private static void writeObjectsParallel(ScratchOutputStream out, ScratchReferenceTable refTable,
+            ScratchProject project) throws IOException
+    {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int maxPending = 2 * pool.getParallelism();
+        Deque<Future<ByteArrayOutputStream>> pending = new ArrayDeque<>();
+
+        try {
+            for (int first = 1; first <= refTable.size(); first += CHUNK_SIZE) {
+                if (pending.size() >= maxPending) {
+                    await(pending.removeFirst()).writeTo(out);
+                }
+                final int start = first, end = Math.min(first + CHUNK_SIZE, refTable.size() + 1);
+                pending.add(pool.submit(() -> encodeChunk(refTable, start, end, project)));
+            }
+            while (!pending.isEmpty()) {
+                await(pending.removeFirst()).writeTo(out);
+            }
+        } finally {
+            for (Future<ByteArrayOutputStream> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Encodes the objects with the given range of reference IDs.
+     *
+     * @param refTable The populated reference table.
+     * @param start The first reference ID (inclusive).
+     * @param end The last reference ID (exclusive).
+     * @param project The project this store belongs to, for version info.
+     * @return A stream containing the encoded objects.
+     * @throws IOException
+     */
+    private static ByteArrayOutputStream encodeChunk(ScratchReferenceTable refTable, int start, int end,
+            ScratchProject project) throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ScratchOutputStream out = new ScratchOutputStream(bout);
+        List<ScratchObject> fields = new ArrayList<>();
+        for (int id = start; id < end; ++id) {
+            writeRecord(refTable.lookup(id), out, refTable, project, fields);
+        }
+        return bout;
+    }
+
+    /**
+     * Writes a single record. If the object is unchanged since it was read and
+     * all reference IDs involved are stable, its original record is copied;
+     * otherwise, the object is encoded.
+     *
+     * @param object The object to write.
+     * @param out The stream to write to.
+     * @param refTable The populated reference table.
+     * @param project The project this store belongs to, for version info.
+     * @param fields A list to use for collecting fields.
+     * @throws IOException
+     */
+    private static void writeRecord(ScratchObject object, ScratchOutputStream out, ScratchReferenceTable refTable,
+            ScratchProject project, List<ScratchObject> fields) throws IOException
+    {
+        ByteBuffer record = object.getReusableSource(refTable, project, fields);
+        if (record != null) {
+            out.write(record);
+        } else {
+            object.writeTo(out, refTable, project);
+        }
+    }
+
+    /**
+     * Waits for a parallel task, unwrapping any failure.
+     *
+     * @param future The task's future.
+     * @param <T> The task's result type.
+     * @return The task's result.
+     * @throws IOException If the task failed or the wait was interrupted.
+     */
+    private static <T> T await(Future<T> future) throws IOException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for parallel task");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     /**
      * Reads an object store from the given input stream. The stream must be
      * positioned <b>before</b> the object store header.
      *
+     * <p>
+     * When reading from a {@link ScratchByteBufferInputStream} that retains
+     * records (see {@link ScratchByteBufferInputStream#setRetainRecords(boolean)}),
+     * every object remembers its original record. Objects that are still
+     * unmodified when the store is written again are then copied instead of
+     * being encoded, provided their reference IDs have not changed.
+     *
      * @param in The input stream to read from.
      * @param project The project reading for.
      * @return The instance read.
@@ -145,26 +349,192 @@ public class ScratchObjectStore
         int size = in.read32bitUnsignedInt();
 
         // read objects
-        List<ScratchObject> objectList = new ArrayList<>();
+        List<ScratchObject> objectList;
+        if (size >= PARALLEL_THRESHOLD && in instanceof ScratchByteBufferInputStream
+                && ForkJoinPool.getCommonPoolParallelism() >= 2) {
+            objectList = readObjectsParallel((ScratchByteBufferInputStream) in, size, project,
+                    ForkJoinPool.commonPool());
+        } else if (in instanceof ScratchByteBufferInputStream
+                && ((ScratchByteBufferInputStream) in).isRetainRecords()) {
+            ScratchByteBufferInputStream bin = (ScratchByteBufferInputStream) in;
+            ByteBuffer source = bin.getBuffer();
+            Object token = new Object();
+            objectList = new ArrayList<>(size);
+            for (int i = 0; i < size; ++i) {
+                int offset = bin.getPosition();
+                ScratchObject obj = ScratchObjects.read(in, project).get();
+                obj.setSource(source, offset, bin.getPosition() - offset, i + 1, project.getVersion(), token);
+                objectList.add(obj);
+            }
+        } else {
+            objectList = new ArrayList<>(size);
+            for (int i = 0; i < size; ++i) {
+                objectList.add(ScratchObjects.read(in, project).get());
+            }
+        }
+
+        List<ScratchObject> orphaned = resolve(objectList, project);
+
+        ScratchObjectStore store = new ScratchObjectStore(objectList.get(0), orphaned);
+        store.originalOrder = objectList;
+        return store;
+    }
+
+    /**
+     * Resolves the references among the given records and finds the orphaned
+     * ones, i.e. those not reachable from the first record (the root).
+     *
+     * @param objectList The records, in order.
+     * @param project The project reading for.
+     * @return The orphaned records, in order.
+     */
+    static List<ScratchObject> resolve(List<ScratchObject> objectList, ScratchProject project)
+    {
+        int size = objectList.size();
+
         ScratchReferenceTable refTable = new ScratchReferenceTable();
-        for (int i = 0; i < size; ++i) {
-            ScratchObject obj = ScratchObjects.read(in, project).get();
-            objectList.add(obj);
+        for (ScratchObject obj : objectList) {
             refTable.insert(obj);
         }
 
-        // resolve references
         for (ScratchObject obj : objectList) {
+            if (obj.overridesCreateReferences()) {
+                return resolveLegacy(objectList, refTable, project);
+            }
+        }
+
+        // resolve references, marking every record reachable from the root;
+        // records are usually stored in pre-order, so each one is marked
+        // before it is visited. When IDs were preserved, a record can refer
+        // to one already passed, from which marking then continues directly.
+        BitSet reachable = new BitSet(size + 1);
+        reachable.set(1);
+        int[] stack = new int[16];
+        List<ScratchObject> fields = new ArrayList<>();
+        for (int i = 1; i <= size; ++i) {
+            ScratchObject obj = objectList.get(i - 1);
             obj.resolveReferences(refTable);
+            if (!reachable.get(i)) {
+                continue;
+            }
+
+            int top = 0;
+            stack[top++] = i;
+            while (top > 0) {
+                fields.clear();
+                objectList.get(stack[--top] - 1).collectReferenceFields(fields, project);
+                for (ScratchObject field : fields) {
+                    int id = refTable.lookup(field);
+                    if (id > 0 && !reachable.get(id)) {
+                        reachable.set(id);
+                        if (id <= i) {
+                            if (top == stack.length) {
+                                stack = Arrays.copyOf(stack, top * 2);
+                            }
+                            stack[top++] = id;
+                        }
+                    }
+                }
+            }
         }
 
-        // find orphaned fields
-        ScratchReferenceTable reverseRefTable = new ScratchReferenceTable();
-        objectList.get(0).createReferences(reverseRefTable, project);
+        // orphaned fields are the records not reachable from the root
+        List<ScratchObject> orphaned = new ArrayList<>();
+        for (int id = reachable.nextClearBit(1); id <= size; id = reachable.nextClearBit(id + 1)) {
+            orphaned.add(objectList.get(id - 1));
+        }
+
+        return orphaned;
+    }
+
+    /**
+     * Resolves the references among the given records and finds the orphaned
+     * ones by building a reference table from the root. Used when some record
+     * overrides
+     * {@link ScratchObject#createReferences(ScratchReferenceTable, ScratchProject)},
+     * since its fields cannot be collected otherwise.
+     *
+     * @param objectList The records, in order.
+     * @param refTable The table of all records.
+     * @param project The project reading for.
+     * @return The orphaned records, in order.
+     */
+    private static List<ScratchObject> resolveLegacy(List<ScratchObject> objectList, ScratchReferenceTable refTable,
+            ScratchProject project)
+    {
+        for (ScratchObject obj : objectList) {
+            obj.resolveReferences(refTable);
+        }
+
+        ScratchReferenceTable reachable = new ScratchReferenceTable();
+        objectList.get(0).createReferences(reachable, project);
+
+        List<ScratchObject> orphaned = new ArrayList<>();
+        for (ScratchObject obj : objectList.subList(1, objectList.size())) {
+            if (reachable.lookup(obj) < 0) {
+                orphaned.add(obj);
+            }
+        }
+        return orphaned;
+    }
+
+    /**
+     * Reads the given number of objects in two phases. First, the records are
+     * skipped using only their class layouts to find their offsets, without
+     * constructing anything. Then, chunks of consecutive records are decoded
+     * in parallel on the given pool, each from its own view of the buffer.
+     * References are left unresolved, just like when reading sequentially, and
+     * records are retained if the stream asks for it.
+     *
+     * @param in The input stream to read from, positioned at the first record.
+     * @param size The number of objects.
+     * @param project The project reading for.
+     * @param pool The pool to decode on.
+     * @return The objects read, in order.
+     * @throws IOException
+     */
+    static List<ScratchObject> readObjectsParallel(ScratchByteBufferInputStream in, int size,
+            ScratchProject project, ForkJoinPool pool) throws IOException
+    {
+        // phase 1: find record offsets
+        int[] offsets = new int[size];
+        for (int i = 0; i < size; ++i) {
+            offsets[i] = in.getPosition();
+            ScratchObjects.skip(in);
+        }
 
-        int oStart = reverseRefTable.size(), oEnd = objectList.size();
-        List<ScratchObject> orphaned = objectList.subList(oStart, oEnd);
+        int storeEnd = in.getPosition();
+
+        // phase 2: decode chunks
+        ByteBuffer source = in.isRetainRecords() ? in.getBuffer() : null;
+        Object token = new Object();
+        ScratchObject[] objects = new ScratchObject[size];
+        List<Future<?>> chunks = new ArrayList<>();
+
+        try {
+            for (int first = 0; first < size; first += CHUNK_SIZE) {
+                final int start = first, end = Math.min(first + CHUNK_SIZE, size);
+                chunks.add(pool.submit(() -> {
+                    ScratchByteBufferInputStream chunkIn = in.duplicate(offsets[start]);
+                    for (int i = start; i < end; ++i) {
+                        objects[i] = ScratchObjects.read(chunkIn, project).get();
+                        if (source != null) {
+                            int offset = offsets[i], length = (i + 1 < size ? offsets[i + 1] : storeEnd) - offset;
+                            objects[i].setSource(source, offset, length, i + 1, project.getVersion(), token);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> chunk : chunks) {
+                await(chunk);
+            }
+        } finally {
+            for (Future<?> chunk : chunks) {
+                chunk.cancel(true);
+            }
+        }
 
-        return new ScratchObjectStore(objectList.get(0), orphaned);
+        return Arrays.asList(objects);
     }
 }
@@ -0,0 +1,510 @@
+package scratchlib.objects;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import scratchlib.project.ScratchProject;
+import scratchlib.reader.ScratchByteBufferInputStream;
+import scratchlib.reader.ScratchInputStream;
+import scratchlib.writer.ScratchOutputStream;
+
+
+/**
+ * Index over the records of an encoded object store, mapping every reference
+ * ID to the record's byte offset and length, its class ID and the IDs of the
+ * records it refers to.
+ *
+ * <p>
+ * With an index, single objects can be decoded from the encoded store without
+ * parsing it as a whole: only the records reachable from the requested one
+ * are visited. Indexes can be saved next to the project they were built from
+ * and loaded again later, see {@link #writeTo(ScratchOutputStream)}.
+ *
+ * <p>
+ * Offsets are positions within the buffer the index was built from, which for
+ * whole project files are file offsets. The index also records that buffer's
+ * length and a CRC-32 checksum of every record, which are checked while
+ * decoding, so that an index no longer matching its file is detected even if
+ * the file kept its length.
+ */
+public class ScratchObjectStoreIndex
+{
+    /**
+     * Header preceding an index in its encoded form.
+     */
+    public static final String HEADER = "ObjI" + (char) 1 + "Stch" + (char) 2;
+
+    /**
+     * The minimum number of bytes an encoded record entry occupies.
+     */
+    private static final int MIN_ENTRY_SIZE = 17;
+
+    private final int sourceLength;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final byte[] classIDs;
+    private final int[] checksums;
+    private final int[] referenceStarts;
+    private final int[] references;
+
+    private ScratchObjectStoreIndex(int sourceLength, int[] offsets, int[] lengths, byte[] classIDs,
+            int[] checksums, int[] referenceStarts, int[] references)
+    {
+        this.sourceLength = sourceLength;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.classIDs = classIDs;
+        this.checksums = checksums;
+        this.referenceStarts = referenceStarts;
+        this.references = references;
+    }
+
+    /**
+     * @return The number of records indexed.
+     */
+    public int size()
+    {
+        return offsets.length;
+    }
+
+    /**
+     * @return The length of the buffer (or file) the index was built from.
+     */
+    public int getSourceLength()
+    {
+        return sourceLength;
+    }
+
+    /**
+     * @param referenceID The record's reference ID.
+     * @return The position of the record's first byte.
+     * @throws IndexOutOfBoundsException If the ID is not in the index.
+     */
+    public int getOffset(int referenceID)
+    {
+        return offsets[checkID(referenceID)];
+    }
+
+    /**
+     * @param referenceID The record's reference ID.
+     * @return The record's length in bytes.
+     * @throws IndexOutOfBoundsException If the ID is not in the index.
+     */
+    public int getLength(int referenceID)
+    {
+        return lengths[checkID(referenceID)];
+    }
+
+    /**
+     * @param referenceID The record's reference ID.
+     * @return The record's class ID.
+     * @throws IndexOutOfBoundsException If the ID is not in the index.
+     */
+    public int getClassID(int referenceID)
+    {
+        return classIDs[checkID(referenceID)] & 0xFF;
+    }
+
+    /**
+     * @param referenceID The record's reference ID.
+     * @return The CRC-32 checksum of the record's bytes.
+     * @throws IndexOutOfBoundsException If the ID is not in the index.
+     */
+    public int getChecksum(int referenceID)
+    {
+        return checksums[checkID(referenceID)];
+    }
+
+    /**
+     * @param referenceID The record's reference ID.
+     * @return The IDs of the records referred to by the given record, in the
+     *         order they are stored.
+     * @throws IndexOutOfBoundsException If the ID is not in the index.
+     */
+    public int[] getReferences(int referenceID)
+    {
+        int i = checkID(referenceID);
+        return Arrays.copyOfRange(references, referenceStarts[i], referenceStarts[i + 1]);
+    }
+
+    /**
+     * Decodes the object with the given reference ID from the buffer this index
+     * was built for. Only the records reachable from the requested one are
+     * decoded; their references among each other are resolved.
+     *
+     * @param buffer The buffer containing the encoded store.
+     * @param referenceID The reference ID of the object to decode.
+     * @param project The project reading for.
+     * @return The decoded object.
+     * @throws IOException If a record cannot be decoded or does not match the
+     *             index.
+     * @throws IndexOutOfBoundsException If the ID is not in the index.
+     */
+    public ScratchObject decode(ByteBuffer buffer, int referenceID, ScratchProject project) throws IOException
+    {
+        if (buffer.limit() != sourceLength) {
+            throw new IOException("index does not match the buffer");
+        }
+
+        return decode(referenceID, project, i -> {
+            ByteBuffer record = buffer.duplicate();
+            record.limit(offsets[i] + lengths[i]);
+            record.position(offsets[i]);
+            return record;
+        });
+    }
+
+    /**
+     * Decodes the object with the given reference ID from the file this index
+     * was built for. Only the records reachable from the requested one are
+     * read from the channel and decoded; their references among each other are
+     * resolved.
+     *
+     * @param channel The channel of the file containing the encoded store.
+     * @param referenceID The reference ID of the object to decode.
+     * @param project The project reading for.
+     * @return The decoded object.
+     * @throws IOException If a record cannot be read, cannot be decoded or
+     *             does not match the index.
+     * @throws IndexOutOfBoundsException If the ID is not in the index.
+     */
+    public ScratchObject decode(FileChannel channel, int referenceID, ScratchProject project) throws IOException
+    {
+        if (channel.size() != sourceLength) {
+            throw new IOException("index does not match the file");
+        }
+
+        return decode(referenceID, project, i -> {
+            ByteBuffer record = ByteBuffer.allocate(lengths[i]);
+            while (record.hasRemaining()) {
+                if (channel.read(record, offsets[i] + record.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            record.flip();
+            return record;
+        });
+    }
+
+    /**
+     * Decodes the object with the given reference ID and everything reachable
+     * from it.
+     *
+     * @param referenceID The reference ID of the object to decode.
+     * @param project The project reading for.
+     * @param records Provides the bytes of the record at an array index.
+     * @return The decoded object.
+     * @throws IOException If a record cannot be decoded or does not match the
+     *             index.
+     */
+    private ScratchObject decode(int referenceID, ScratchProject project, RecordSource records) throws IOException
+    {
+        checkID(referenceID);
+
+        ScratchReferenceTable refTable = new ScratchReferenceTable();
+        List<ScratchObject> decoded = new ArrayList<>();
+
+        BitSet seen = new BitSet(offsets.length + 1);
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = referenceID;
+        seen.set(referenceID);
+
+        while (top > 0) {
+            int id = stack[--top];
+
+            ByteBuffer record = records.get(id - 1);
+            if (!record.hasRemaining() || (record.get(record.position()) & 0xFF) != getClassID(id)
+                    || checksum(record.duplicate()) != checksums[id - 1]) {
+                throw new IOException("record " + id + " does not match the index");
+            }
+            ScratchByteBufferInputStream in = new ScratchByteBufferInputStream(record);
+            ScratchObject obj = ScratchObjects.read(in, project).get();
+            if (in.getPosition() != record.limit()) {
+                throw new IOException("record " + id + " does not match the index");
+            }
+            refTable.insert(id, obj);
+            decoded.add(obj);
+
+            for (int i = referenceStarts[id - 1]; i < referenceStarts[id]; ++i) {
+                int ref = references[i];
+                if (!seen.get(ref)) {
+                    seen.set(ref);
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = ref;
+                }
+            }
+        }
+
+        for (ScratchObject obj : decoded) {
+            obj.resolveReferences(refTable);
+        }
+
+        return refTable.lookup(referenceID);
+    }
+
+    /**
+     * Writes this index to the given output stream.
+     *
+     * @param out The stream to write to.
+     * @throws IOException
+     */
+    public void writeTo(ScratchOutputStream out) throws IOException
+    {
+        out.writeString(HEADER);
+        out.write32bitUnsignedInt(offsets.length);
+        out.write32bitUnsignedInt(sourceLength);
+
+        for (int i = 0; i < offsets.length; ++i) {
+            out.write32bitUnsignedInt(offsets[i]);
+            out.write32bitUnsignedInt(lengths[i]);
+            out.write(classIDs[i]);
+            out.write32bitUnsignedInt(checksums[i]);
+            out.write32bitUnsignedInt(referenceStarts[i + 1] - referenceStarts[i]);
+            for (int j = referenceStarts[i]; j < referenceStarts[i + 1]; ++j) {
+                out.write24bitUnsignedInt(references[j]);
+            }
+        }
+    }
+
+    /**
+     * Reads an index from the given input stream, as written by
+     * {@link #writeTo(ScratchOutputStream)}.
+     *
+     * <p>
+     * The record count is not trusted: it is checked against the bytes left
+     * where the stream knows them, and storage grows with the records actually
+     * read otherwise.
+     *
+     * @param in The stream to read from.
+     * @return The index read.
+     * @throws IOException If the index is malformed or truncated.
+     */
+    public static ScratchObjectStoreIndex readFrom(ScratchInputStream in) throws IOException
+    {
+        String header = in.readString(10);
+        if (!header.equals(HEADER)) {
+            throw new IOException("invalid object store index header");
+        }
+
+        int size = in.read32bitUnsignedInt();
+        int sourceLength = in.read32bitUnsignedInt();
+        if (size < 0 || sourceLength < 0) {
+            throw new IOException("invalid object store index size");
+        }
+        if (in instanceof ScratchByteBufferInputStream
+                && (long) size * MIN_ENTRY_SIZE > ((ScratchByteBufferInputStream) in).getBuffer().remaining()) {
+            throw new IOException("object store index truncated");
+        }
+        Builder builder = new Builder(size, sourceLength);
+
+        for (int i = 1; i <= size; ++i) {
+            int offset = in.read32bitUnsignedInt();
+            int length = in.read32bitUnsignedInt();
+            int classID = in.read();
+            if (classID < 0) {
+                throw new EOFException();
+            }
+            int checksum = in.read32bitUnsignedInt();
+            builder.start(i, offset, classID);
+            for (int count = in.read32bitUnsignedInt(); count > 0; --count) {
+                builder.reference(in.read24bitUnsignedInt());
+            }
+            builder.end(i, offset + length, checksum);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Builds an index over the object store read from the given input stream.
+     * The stream must be positioned <b>before</b> the object store header; it
+     * is left positioned after the store.
+     *
+     * @param in The input stream to read from.
+     * @param project The project reading for.
+     * @return The index built.
+     * @throws IOException
+     */
+    public static ScratchObjectStoreIndex build(ScratchByteBufferInputStream in, ScratchProject project)
+            throws IOException
+    {
+        Builder[] builder = new Builder[1];
+        int sourceLength = in.getBuffer().limit();
+
+        ScratchObjectStoreParser.parse(in, project, new IScratchObjectStoreVisitor() {
+            @Override
+            public void visitStore(int size)
+            {
+                builder[0] = new Builder(size, sourceLength);
+            }
+
+            @Override
+            public void visitObjectStart(int referenceID, int classID)
+            {
+                if (referenceID > 0) {
+                    builder[0].start(referenceID, in.getPosition() - 1, classID);
+                }
+            }
+
+            @Override
+            public void visitReference(int referenceID)
+            {
+                builder[0].reference(referenceID);
+            }
+
+            @Override
+            public void visitObjectEnd(int referenceID, int classID)
+            {
+                if (referenceID > 0) {
+                    ByteBuffer record = in.getBuffer().duplicate();
+                    record.limit(in.getPosition());
+                    record.position(builder[0].getOffset(referenceID));
+                    builder[0].end(referenceID, in.getPosition(), checksum(record));
+                }
+            }
+        });
+
+        return builder[0].build();
+    }
+
+    /**
+     * @param record The bytes to checksum, consumed by this method.
+     * @return The CRC-32 checksum of the remaining bytes.
+     */
+    private static int checksum(ByteBuffer record)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Checks the given reference ID and converts it to an array index.
+     *
+     * @param referenceID The reference ID to check.
+     * @return The array index.
+     * @throws IndexOutOfBoundsException If the ID is not in the index.
+     */
+    private int checkID(int referenceID)
+    {
+        if (referenceID < 1 || referenceID > offsets.length) {
+            throw new IndexOutOfBoundsException("reference ID " + referenceID + " not in index");
+        }
+        return referenceID - 1;
+    }
+
+    /**
+     * Provides the bytes of single records.
+     */
+    @FunctionalInterface
+    private interface RecordSource
+    {
+        /**
+         * @param index The record's array index.
+         * @return A buffer from the record's first to its last byte.
+         * @throws IOException
+         */
+        ByteBuffer get(int index) throws IOException;
+    }
+
+    /**
+     * Collects records in order and produces the index arrays. The expected
+     * record count comes from untrusted input, so storage starts small and
+     * grows with the records actually collected.
+     */
+    private static class Builder
+    {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final int size;
+        private final int sourceLength;
+        private int count;
+        private int[] offsets;
+        private int[] lengths;
+        private byte[] classIDs;
+        private int[] checksums;
+        private int[] referenceStarts;
+        private int[] references = new int[64];
+        private int referenceCount;
+
+        public Builder(int size, int sourceLength)
+        {
+            this.size = size;
+            this.sourceLength = sourceLength;
+
+            int capacity = Math.max(1, Math.min(size, INITIAL_CAPACITY));
+            offsets = new int[capacity];
+            lengths = new int[capacity];
+            classIDs = new byte[capacity];
+            checksums = new int[capacity];
+            referenceStarts = new int[capacity + 1];
+        }
+
+        public void start(int referenceID, int offset, int classID)
+        {
+            if (referenceID > offsets.length) {
+                int capacity = (int) Math.min((long) offsets.length * 2, Math.max(size, referenceID));
+                capacity = Math.max(capacity, referenceID);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                classIDs = Arrays.copyOf(classIDs, capacity);
+                checksums = Arrays.copyOf(checksums, capacity);
+                referenceStarts = Arrays.copyOf(referenceStarts, capacity + 1);
+            }
+            count = Math.max(count, referenceID);
+            offsets[referenceID - 1] = offset;
+            classIDs[referenceID - 1] = (byte) classID;
+            referenceStarts[referenceID - 1] = referenceCount;
+        }
+
+        public int getOffset(int referenceID)
+        {
+            return offsets[referenceID - 1];
+        }
+
+        public void reference(int referenceID)
+        {
+            if (referenceCount == references.length) {
+                references = Arrays.copyOf(references, referenceCount * 2);
+            }
+            references[referenceCount++] = referenceID;
+        }
+
+        public void end(int referenceID, int end, int checksum)
+        {
+            lengths[referenceID - 1] = end - offsets[referenceID - 1];
+            checksums[referenceID - 1] = checksum;
+            referenceStarts[referenceID] = referenceCount;
+        }
+
+        public ScratchObjectStoreIndex build() throws IOException
+        {
+            if (count != size) {
+                throw new IOException("expected " + size + " records, found " + count);
+            }
+            for (int i = 0; i < count; ++i) {
+                if (offsets[i] < 0 || lengths[i] <= 0 || (long) offsets[i] + lengths[i] > sourceLength) {
+                    throw new IOException("record " + (i + 1) + " out of bounds");
+                }
+            }
+            for (int i = 0; i < referenceCount; ++i) {
+                if (references[i] < 1 || references[i] > count) {
+                    throw new IOException("reference ID " + references[i] + " out of bounds");
+                }
+            }
+            return new ScratchObjectStoreIndex(sourceLength, Arrays.copyOf(offsets, count),
+                    Arrays.copyOf(lengths, count), Arrays.copyOf(classIDs, count), Arrays.copyOf(checksums, count),
+                    Arrays.copyOf(referenceStarts, count + 1), Arrays.copyOf(references, referenceCount));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package scratchlib.objects;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.function.Supplier;
+
+import scratchlib.project.ScratchProject;
+import scratchlib.reader.ScratchInputStream;
+
+
+/**
+ * Event-based parser for object stores. Instead of building the object graph
+ * like {@link ScratchObjectStore#readFrom(ScratchInputStream, ScratchProject)},
+ * it reports every record to an {@link IScratchObjectStoreVisitor} and keeps
+ * nothing in memory, which makes it suitable for validation, statistics or
+ * searching over arbitrarily large stores.
+ */
+public class ScratchObjectStoreParser
+{
+    private ScratchObjectStoreParser()
+    {
+    }
+
+    /**
+     * Parses an object store from the given input stream, reporting its
+     * contents to the given visitor. The stream must be positioned
+     * <b>before</b> the object store header.
+     *
+     * @param in The input stream to read from.
+     * @param project The project reading for.
+     * @param visitor The visitor to report to.
+     * @throws IOException
+     */
+    public static void parse(ScratchInputStream in, ScratchProject project, IScratchObjectStoreVisitor visitor)
+            throws IOException
+    {
+        String header = in.readString(10);
+        if (!header.equals(ScratchObjectStore.HEADER)) {
+            throw new IOException("invalid object store header");
+        }
+
+        int size = in.read32bitUnsignedInt();
+        visitor.visitStore(size);
+
+        parseRecords(size, in, project, visitor);
+
+        visitor.visitStoreEnd();
+    }
+
+    /**
+     * Parses the given number of records, i.e. the part of an object store
+     * following its header and size.
+     *
+     * @param size The number of records.
+     * @param in The input stream to read from.
+     * @param project The project reading for.
+     * @param visitor The visitor to report to.
+     * @throws IOException
+     */
+    private static void parseRecords(int size, ScratchInputStream in, ScratchProject project,
+            IScratchObjectStoreVisitor visitor) throws IOException
+    {
+        for (int i = 1; i <= size; ++i) {
+            parseObject(i, readClassID(in), in, project, visitor);
+        }
+    }
+
+    /**
+     * Reads a single class ID byte.
+     *
+     * @param in The input stream to read from.
+     * @return The class ID.
+     * @throws IOException If the end of the stream has been reached.
+     */
+    private static int readClassID(ScratchInputStream in) throws IOException
+    {
+        int id = in.read();
+        if (id < 0) {
+            throw new EOFException();
+        }
+        return id;
+    }
+
+    /**
+     * Parses a record or nested object, reporting start, contents and end.
+     *
+     * @param referenceID The reference ID to report (0 for nested objects).
+     * @param classID The object's class ID, already read.
+     * @param in The input stream to read from.
+     * @param project The project reading for.
+     * @param visitor The visitor to report to.
+     * @throws IOException
+     */
+    private static void parseObject(int referenceID, int classID, ScratchInputStream in, ScratchProject project,
+            IScratchObjectStoreVisitor visitor) throws IOException
+    {
+        visitor.visitObjectStart(referenceID, classID);
+        parseContents(classID, in, project, visitor);
+        visitor.visitObjectEnd(referenceID, classID);
+    }
+
+    /**
+     * Parses a field, which is either a reference, an inline value or a nested
+     * object.
+     *
+     * @param in The input stream to read from.
+     * @param project The project reading for.
+     * @param visitor The visitor to report to.
+     * @throws IOException
+     */
+    private static void parseField(ScratchInputStream in, ScratchProject project,
+            IScratchObjectStoreVisitor visitor) throws IOException
+    {
+        int classID = readClassID(in);
+
+        if (classID == 99) {
+            visitor.visitReference(in.read24bitUnsignedInt());
+        } else if (isInline(classID)) {
+            parseContents(classID, in, project, visitor);
+        } else {
+            parseObject(0, classID, in, project, visitor);
+        }
+    }
+
+    /**
+     * Parses the given amount of consecutive fields.
+     *
+     * @param count The number of fields.
+     * @param in The input stream to read from.
+     * @param project The project reading for.
+     * @param visitor The visitor to report to.
+     * @throws IOException
+     */
+    private static void parseFields(long count, ScratchInputStream in, ScratchProject project,
+            IScratchObjectStoreVisitor visitor) throws IOException
+    {
+        for (long i = 0; i < count; ++i) {
+            parseField(in, project, visitor);
+        }
+    }
+
+    /**
+     * Parses the contents of an object of the given class, i.e. everything
+     * following the class ID.
+     *
+     * @param classID The object's class ID, already read.
+     * @param in The input stream to read from.
+     * @param project The project reading for.
+     * @param visitor The visitor to report to.
+     * @throws IOException
+     */
+    private static void parseContents(int classID, ScratchInputStream in, ScratchProject project,
+            IScratchObjectStoreVisitor visitor) throws IOException
+    {
+        if (isInline(classID)) {
+            Supplier<ScratchObject> con = ScratchObjects.lookupConstructor(classID);
+            ScratchObject obj = con.get();
+            obj.readFrom(classID, in, project);
+            visitor.visitInline(obj);
+            return;
+        }
+
+        ScratchRecordLayout layout = ScratchObjects.lookupLayout(classID);
+        if (layout == null) {
+            throw new IOException(String.format("unknown class id: %d", classID));
+        }
+
+        long length = layout.readLength(in);
+        if (layout.getKind() == ScratchRecordLayout.Kind.DATA) {
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("record too large: " + length + " bytes");
+            }
+            visitor.visitData(in.readSlice((int) length));
+        } else {
+            parseFields(length, in, project, visitor);
+        }
+    }
+
+    /**
+     * @param classID The class ID to check.
+     * @return Whether objects of that class are inline (constants and numbers).
+     */
+    private static boolean isInline(int classID)
+    {
+        return classID >= 1 && classID <= 8;
+    }
+}
@@ -1,5 +1,6 @@
 package scratchlib.objects;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -57,19 +58,33 @@ import scratchlib.reader.ScratchInputStream;
 public class ScratchObjects
 {
     private static final List<Supplier<ScratchObject>> cons = new ArrayList<>(Collections.nCopies(255, null));
+    private static final List<ScratchRecordLayout> layouts = new ArrayList<>(Collections.nCopies(255, null));
 
     /**
-     * Stores the given constructor for the given class ID.
+     * Stores the given constructor and record layout for the given class ID.
      *
      * @param id The class ID.
      * @param con The class constructor.
+     * @param layout The layout of the class's contents in object stores.
      */
-    private static void storeConstructor(int id, Supplier<ScratchObject> con)
+    private static void storeConstructor(int id, Supplier<ScratchObject> con, ScratchRecordLayout layout)
     {
         if (cons.get(id - 1) != null) {
             throw new IllegalArgumentException(String.format("class ID already used: %d", id));
         }
         cons.set(id - 1, con);
+        layouts.set(id - 1, layout);
+    }
+
+    /**
+     * Stores the given constructor for the given user class ID.
+     *
+     * @param id The class ID.
+     * @param con The class constructor.
+     */
+    private static void storeConstructor(int id, Supplier<ScratchObject> con)
+    {
+        storeConstructor(id, con, ScratchRecordLayout.USER_CLASS);
     }
 
     /**
@@ -83,6 +98,55 @@ public class ScratchObjects
         return cons.get(id - 1);
     }
 
+    /**
+     * Finds the record layout for the given class ID. Every ID of 100 or above
+     * uses the user-class layout, even if no constructor is known for it.
+     *
+     * @param id The class ID.
+     * @return The layout, or null if the ID is unknown.
+     */
+    static ScratchRecordLayout lookupLayout(int id)
+    {
+        if (id >= 100) {
+            return ScratchRecordLayout.USER_CLASS;
+        }
+        return id >= 1 && id <= layouts.size() ? layouts.get(id - 1) : null;
+    }
+
+    /**
+     * Skips an object or reference in the given input stream without
+     * constructing anything, using only the registered record layouts.
+     *
+     * @param in The stream to read from.
+     * @throws IOException If the class ID is unknown or the stream ends.
+     */
+    public static void skip(ScratchInputStream in) throws IOException
+    {
+        final int id = in.read();
+        if (id < 0) {
+            throw new EOFException();
+        }
+
+        if (id == 99) {
+            in.skipFully(3);
+            return;
+        }
+
+        ScratchRecordLayout layout = lookupLayout(id);
+        if (layout == null) {
+            throw new IOException(String.format("unknown class id: %d", id));
+        }
+
+        long length = layout.readLength(in);
+        if (layout.getKind() == ScratchRecordLayout.Kind.DATA) {
+            in.skipFully(length);
+            return;
+        }
+        for (long i = 0; i < length; ++i) {
+            skip(in);
+        }
+    }
+
     /**
      * Convenience method for reading an object or reference from the given
      * input stream.
@@ -113,44 +177,57 @@ public class ScratchObjects
 
     static {
         // inline: constants (1, 2, 3)
-        storeConstructor(ScratchObject.NIL.getClassID(), () -> ScratchObject.NIL);
-        storeConstructor(ScratchObjectBoolean.TRUE.getClassID(), () -> ScratchObjectBoolean.TRUE);
-        storeConstructor(ScratchObjectBoolean.FALSE.getClassID(), () -> ScratchObjectBoolean.FALSE);
+        storeConstructor(ScratchObject.NIL.getClassID(), () -> ScratchObject.NIL, ScratchRecordLayout.data(0));
+        storeConstructor(ScratchObjectBoolean.TRUE.getClassID(), () -> ScratchObjectBoolean.TRUE,
+                ScratchRecordLayout.data(0));
+        storeConstructor(ScratchObjectBoolean.FALSE.getClassID(), () -> ScratchObjectBoolean.FALSE,
+                ScratchRecordLayout.data(0));
 
         // inline: numbers (4 ... 8)
-        storeConstructor(ScratchObjectSmallInteger.CLASS_ID, ScratchObjectSmallInteger::new);
-        storeConstructor(ScratchObjectSmallInteger16.CLASS_ID, ScratchObjectSmallInteger16::new);
-        storeConstructor(ScratchObjectLargePositiveInteger.CLASS_ID, ScratchObjectLargePositiveInteger::new);
-        storeConstructor(ScratchObjectLargeNegativeInteger.CLASS_ID, ScratchObjectLargeNegativeInteger::new);
-        storeConstructor(ScratchObjectFloat.CLASS_ID, ScratchObjectFloat::new);
+        storeConstructor(ScratchObjectSmallInteger.CLASS_ID, ScratchObjectSmallInteger::new,
+                ScratchRecordLayout.data(4));
+        storeConstructor(ScratchObjectSmallInteger16.CLASS_ID, ScratchObjectSmallInteger16::new,
+                ScratchRecordLayout.data(2));
+        storeConstructor(ScratchObjectLargePositiveInteger.CLASS_ID, ScratchObjectLargePositiveInteger::new,
+                ScratchRecordLayout.countedData(2, 1));
+        storeConstructor(ScratchObjectLargeNegativeInteger.CLASS_ID, ScratchObjectLargeNegativeInteger::new,
+                ScratchRecordLayout.countedData(2, 1));
+        storeConstructor(ScratchObjectFloat.CLASS_ID, ScratchObjectFloat::new, ScratchRecordLayout.data(8));
 
         // fixed-format: data (9 ... 14)
-        storeConstructor(ScratchObjectString.CLASS_ID, ScratchObjectString::new);
-        storeConstructor(ScratchObjectSymbol.CLASS_ID, ScratchObjectSymbol::new);
-        storeConstructor(ScratchObjectByteArray.CLASS_ID, ScratchObjectByteArray::new);
-        storeConstructor(ScratchObjectSoundBuffer.CLASS_ID, ScratchObjectSoundBuffer::new);
-        storeConstructor(ScratchObjectBitmap.CLASS_ID, ScratchObjectBitmap::new);
-        storeConstructor(ScratchObjectUtf8.CLASS_ID, ScratchObjectUtf8::new);
+        storeConstructor(ScratchObjectString.CLASS_ID, ScratchObjectString::new, ScratchRecordLayout.countedData(4, 1));
+        storeConstructor(ScratchObjectSymbol.CLASS_ID, ScratchObjectSymbol::new, ScratchRecordLayout.countedData(4, 1));
+        storeConstructor(ScratchObjectByteArray.CLASS_ID, ScratchObjectByteArray::new,
+                ScratchRecordLayout.countedData(4, 1));
+        storeConstructor(ScratchObjectSoundBuffer.CLASS_ID, ScratchObjectSoundBuffer::new,
+                ScratchRecordLayout.countedData(4, 2));
+        storeConstructor(ScratchObjectBitmap.CLASS_ID, ScratchObjectBitmap::new, ScratchRecordLayout.countedData(4, 4));
+        storeConstructor(ScratchObjectUtf8.CLASS_ID, ScratchObjectUtf8::new, ScratchRecordLayout.countedData(4, 1));
 
         // fixed-format: collections (20 ... 25)
-        storeConstructor(ScratchObjectArray.CLASS_ID, ScratchObjectArray::new);
-        storeConstructor(ScratchObjectOrderedCollection.CLASS_ID, ScratchObjectOrderedCollection::new);
-        storeConstructor(ScratchObjectSet.CLASS_ID, ScratchObjectSet::new);
-        storeConstructor(ScratchObjectIdentitySet.CLASS_ID, ScratchObjectIdentitySet::new);
-        storeConstructor(ScratchObjectDictionary.CLASS_ID, ScratchObjectDictionary::new);
-        storeConstructor(ScratchObjectIdentityDictionary.CLASS_ID, ScratchObjectIdentityDictionary::new);
+        storeConstructor(ScratchObjectArray.CLASS_ID, ScratchObjectArray::new, ScratchRecordLayout.countedFields(1));
+        storeConstructor(ScratchObjectOrderedCollection.CLASS_ID, ScratchObjectOrderedCollection::new,
+                ScratchRecordLayout.countedFields(1));
+        storeConstructor(ScratchObjectSet.CLASS_ID, ScratchObjectSet::new, ScratchRecordLayout.countedFields(1));
+        storeConstructor(ScratchObjectIdentitySet.CLASS_ID, ScratchObjectIdentitySet::new,
+                ScratchRecordLayout.countedFields(1));
+        storeConstructor(ScratchObjectDictionary.CLASS_ID, ScratchObjectDictionary::new,
+                ScratchRecordLayout.countedFields(2));
+        storeConstructor(ScratchObjectIdentityDictionary.CLASS_ID, ScratchObjectIdentityDictionary::new,
+                ScratchRecordLayout.countedFields(2));
 
         // fixed-format: colors (30, 31)
-        storeConstructor(ScratchObjectColor.CLASS_ID, ScratchObjectColor::new);
-        storeConstructor(ScratchObjectTranslucentColor.CLASS_ID, ScratchObjectTranslucentColor::new);
+        storeConstructor(ScratchObjectColor.CLASS_ID, ScratchObjectColor::new, ScratchRecordLayout.data(4));
+        storeConstructor(ScratchObjectTranslucentColor.CLASS_ID, ScratchObjectTranslucentColor::new,
+                ScratchRecordLayout.data(5));
 
         // fixed-format: dimensions (32, 33)
-        storeConstructor(ScratchObjectPoint.CLASS_ID, ScratchObjectPoint::new);
-        storeConstructor(ScratchObjectRectangle.CLASS_ID, ScratchObjectRectangle::new);
+        storeConstructor(ScratchObjectPoint.CLASS_ID, ScratchObjectPoint::new, ScratchRecordLayout.fields(2));
+        storeConstructor(ScratchObjectRectangle.CLASS_ID, ScratchObjectRectangle::new, ScratchRecordLayout.fields(4));
 
         // fixed-format: forms
-        storeConstructor(ScratchObjectForm.CLASS_ID, ScratchObjectForm::new);
-        storeConstructor(ScratchObjectColorForm.CLASS_ID, ScratchObjectColorForm::new);
+        storeConstructor(ScratchObjectForm.CLASS_ID, ScratchObjectForm::new, ScratchRecordLayout.fields(5));
+        storeConstructor(ScratchObjectColorForm.CLASS_ID, ScratchObjectColorForm::new, ScratchRecordLayout.fields(6));
 
         // ---- USER-CLASS OBJECTS
 
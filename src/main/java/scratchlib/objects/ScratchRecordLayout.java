@@ -0,0 +1,119 @@
+package scratchlib.objects;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import scratchlib.reader.ScratchInputStream;
+
+
+/**
+ * Describes how the contents of an object are laid out in an object store, so
+ * that they can be parsed or skipped without constructing the object.
+ *
+ * <p>
+ * Every layout is either plain data of some length, a number of fields, or
+ * the user-class format (version byte, field count byte, fields). Lengths and
+ * counts are either fixed or read from a prefix of 2 or 4 bytes.
+ */
+final class ScratchRecordLayout
+{
+    /**
+     * The kinds of contents an object can have.
+     */
+    enum Kind
+    {
+        DATA, FIELDS, USER_CLASS
+    }
+
+    /**
+     * The layout shared by all user-class objects.
+     */
+    static final ScratchRecordLayout USER_CLASS = new ScratchRecordLayout(Kind.USER_CLASS, 0, 0);
+
+    private final Kind kind;
+    private final int prefixSize;
+    private final int size;
+
+    private ScratchRecordLayout(Kind kind, int prefixSize, int size)
+    {
+        this.kind = kind;
+        this.prefixSize = prefixSize;
+        this.size = size;
+    }
+
+    /**
+     * @param length The data length in bytes.
+     * @return A layout for data of a fixed length.
+     */
+    static ScratchRecordLayout data(int length)
+    {
+        return new ScratchRecordLayout(Kind.DATA, 0, length);
+    }
+
+    /**
+     * @param prefixSize The size of the count prefix (2 or 4 bytes).
+     * @param unitSize The number of bytes per counted unit.
+     * @return A layout for data preceded by its unit count.
+     */
+    static ScratchRecordLayout countedData(int prefixSize, int unitSize)
+    {
+        return new ScratchRecordLayout(Kind.DATA, prefixSize, unitSize);
+    }
+
+    /**
+     * @param count The number of fields.
+     * @return A layout for a fixed number of fields.
+     */
+    static ScratchRecordLayout fields(int count)
+    {
+        return new ScratchRecordLayout(Kind.FIELDS, 0, count);
+    }
+
+    /**
+     * @param fieldsPerCount The number of fields per counted entry.
+     * @return A layout for fields preceded by their 4-byte entry count.
+     */
+    static ScratchRecordLayout countedFields(int fieldsPerCount)
+    {
+        return new ScratchRecordLayout(Kind.FIELDS, 4, fieldsPerCount);
+    }
+
+    /**
+     * @return The kind of contents.
+     */
+    Kind getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * Reads everything preceding the data or fields, i.e. the count prefix or
+     * the user-class header.
+     *
+     * @param in The stream to read from, positioned after the class ID.
+     * @return The data length in bytes for {@link Kind#DATA}, otherwise the
+     *         number of fields.
+     * @throws IOException
+     */
+    long readLength(ScratchInputStream in) throws IOException
+    {
+        if (kind == Kind.USER_CLASS) {
+            // skip class version, then read field count
+            in.read();
+            int count = in.read();
+            if (count < 0) {
+                throw new EOFException();
+            }
+            return count;
+        }
+
+        switch (prefixSize) {
+            case 2:
+                return (long) in.read16bitUnsignedInt() * size;
+            case 4:
+                return (in.read32bitUnsignedInt() & 0xFFFFFFFFL) * size;
+            default:
+                return size;
+        }
+    }
+}
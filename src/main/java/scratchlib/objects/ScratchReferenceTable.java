@@ -2,8 +2,10 @@ package scratchlib.objects;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import scratchlib.project.ScratchProject;
 import scratchlib.writer.ScratchOutputStream;
@@ -12,10 +14,15 @@ import scratchlib.writer.ScratchOutputStream;
 /**
  * Maps instances of {@link ScratchObject} to reference IDs, offering insertion,
  * lookup and iteration methods.
+ *
+ * <p>
+ * Besides the ordered list of objects, an identity index is kept so that both
+ * directions of lookup take constant time.
  */
 public class ScratchReferenceTable implements Iterable<ScratchObject>
 {
     private final List<ScratchObject> references = new ArrayList<>();
+    private final Map<ScratchObject, Integer> index = new IdentityHashMap<>();
 
     /**
      * Performs a reference lookup for the given {@link ScratchObject}.
@@ -25,8 +32,8 @@ public class ScratchReferenceTable implements Iterable<ScratchObject>
      */
     public int lookup(ScratchObject object)
     {
-        int index = references.indexOf(object);
-        return index == -1 ? index : index + 1;
+        Integer referenceID = index.get(object);
+        return referenceID == null ? -1 : referenceID;
     }
 
     /**
@@ -53,13 +60,31 @@ public class ScratchReferenceTable implements Iterable<ScratchObject>
      */
     public boolean insert(ScratchObject object)
     {
-        if (references.contains(object)) {
+        if (index.containsKey(object)) {
             return false;
         }
         references.add(object);
+        index.put(object, references.size());
         return true;
     }
 
+    /**
+     * Inserts the given {@link ScratchObject} under the given reference ID,
+     * leaving any lower IDs not yet assigned empty. This is used when only part
+     * of a store is decoded.
+     *
+     * @param referenceID The ID to insert at.
+     * @param object The object to insert.
+     */
+    void insert(int referenceID, ScratchObject object)
+    {
+        while (references.size() < referenceID) {
+            references.add(null);
+        }
+        references.set(referenceID - 1, object);
+        index.put(object, referenceID);
+    }
+
     /**
      * @return The number of references stored.
      */
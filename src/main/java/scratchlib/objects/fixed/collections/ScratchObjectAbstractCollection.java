@@ -6,6 +6,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -84,6 +85,7 @@ public abstract class ScratchObjectAbstractCollection extends ScratchObject
     {
         Objects.requireNonNull(object);
         entries.set(index, new ScratchOptionalField(object));
+        markDirty();
     }
 
     /**
@@ -96,6 +98,7 @@ public abstract class ScratchObjectAbstractCollection extends ScratchObject
     {
         Objects.requireNonNull(object);
         entries.add(new ScratchOptionalField(object));
+        markDirty();
     }
 
     /**
@@ -110,6 +113,7 @@ public abstract class ScratchObjectAbstractCollection extends ScratchObject
     {
         Objects.requireNonNull(object);
         entries.add(index, new ScratchOptionalField(object));
+        markDirty();
     }
 
     /**
@@ -120,7 +124,9 @@ public abstract class ScratchObjectAbstractCollection extends ScratchObject
      */
     public ScratchObject remove(int index)
     {
-        return entries.remove(index).get();
+        ScratchObject removed = entries.remove(index).get();
+        markDirty();
+        return removed;
     }
 
     /**
@@ -130,7 +136,9 @@ public abstract class ScratchObjectAbstractCollection extends ScratchObject
      */
     public void remove(ScratchObject object)
     {
-        entries.removeIf(optionalField -> Objects.equals(optionalField.get(), object));
+        if (entries.removeIf(optionalField -> Objects.equals(optionalField.get(), object))) {
+            markDirty();
+        }
     }
 
     /**
@@ -139,6 +147,7 @@ public abstract class ScratchObjectAbstractCollection extends ScratchObject
     public void clear()
     {
         entries.clear();
+        markDirty();
     }
 
     @Override
@@ -156,17 +165,17 @@ public abstract class ScratchObjectAbstractCollection extends ScratchObject
     }
 
     @Override
-    public boolean createReferences(ScratchReferenceTable ref, ScratchProject project)
+    protected void collectReferenceFields(List<ScratchObject> fields, ScratchProject project)
     {
-        if (!super.createReferences(ref, project)) {
-            return false;
-        }
-
         for (ScratchOptionalField entry : entries) {
-            entry.get().createReferences(ref, project);
+            fields.add(entry.get());
         }
+    }
 
-        return true;
+    @Override
+    protected void replaceReferenceFields(UnaryOperator<ScratchObject> replacement)
+    {
+        entries.replaceAll(entry -> replaceField(entry, replacement));
     }
 
     @Override
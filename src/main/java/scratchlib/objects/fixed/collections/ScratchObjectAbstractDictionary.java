@@ -3,6 +3,7 @@ package scratchlib.objects.fixed.collections;
 import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.function.UnaryOperator;
 
 import scratchlib.objects.IScratchReferenceType;
 import scratchlib.objects.ScratchObject;
@@ -68,6 +69,7 @@ public abstract class ScratchObjectAbstractDictionary extends ScratchObject impl
         Objects.requireNonNull(value);
 
         entries.put(key, value);
+        markDirty();
     }
 
     /**
@@ -77,46 +79,186 @@ public abstract class ScratchObjectAbstractDictionary extends ScratchObject impl
      */
     public void remove(ScratchObject key)
     {
-        entries.remove(key);
+        if (entries.remove(key) != null) {
+            markDirty();
+        }
     }
 
     /**
-     * @return A writable set of all keys in this dictionary.
+     * @return A writable set of all keys in this dictionary. Removing keys
+     *         removes their entries and marks this dictionary dirty.
      */
     public Set<ScratchObject> keySet()
     {
-        return entries.keySet();
+        return new AbstractSet<ScratchObject>() {
+            @Override
+            public int size()
+            {
+                return entries.size();
+            }
+
+            @Override
+            public boolean contains(Object o)
+            {
+                return entries.containsKey(o);
+            }
+
+            @Override
+            public Iterator<ScratchObject> iterator()
+            {
+                return track(entries.keySet().iterator());
+            }
+        };
     }
 
     /**
-     * @return A writable collection of all values in this dictionary.
+     * @return A writable collection of all values in this dictionary. Removing
+     *         values removes their entries and marks this dictionary dirty.
      */
     public Collection<ScratchObject> values()
     {
-        return entries.values();
+        return new AbstractCollection<ScratchObject>() {
+            @Override
+            public int size()
+            {
+                return entries.size();
+            }
+
+            @Override
+            public boolean contains(Object o)
+            {
+                return entries.containsValue(o);
+            }
+
+            @Override
+            public Iterator<ScratchObject> iterator()
+            {
+                return track(entries.values().iterator());
+            }
+        };
     }
 
     /**
-     * @return A writable set of all mappings in this dictionary.
+     * @return A writable set of all mappings in this dictionary. Removing
+     *         mappings or setting their values marks this dictionary dirty.
      */
     public Set<Entry<ScratchObject, ScratchObject>> entrySet()
     {
-        return entries.entrySet();
+        return new AbstractSet<Entry<ScratchObject, ScratchObject>>() {
+            @Override
+            public int size()
+            {
+                return entries.size();
+            }
+
+            @Override
+            public Iterator<Entry<ScratchObject, ScratchObject>> iterator()
+            {
+                Iterator<Entry<ScratchObject, ScratchObject>> it = track(entries.entrySet().iterator());
+                return new Iterator<Entry<ScratchObject, ScratchObject>>() {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Entry<ScratchObject, ScratchObject> next()
+                    {
+                        return track(it.next());
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        it.remove();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Wraps an iterator over one of the views of this dictionary's entries,
+     * so that removals through it mark this dictionary dirty.
+     *
+     * @param it The iterator to wrap.
+     * @return The wrapped iterator.
+     */
+    private <T> Iterator<T> track(Iterator<T> it)
+    {
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            @Override
+            public T next()
+            {
+                return it.next();
+            }
+
+            @Override
+            public void remove()
+            {
+                it.remove();
+                markDirty();
+            }
+        };
+    }
+
+    /**
+     * Wraps one of this dictionary's entries, so that setting its value marks
+     * this dictionary dirty.
+     *
+     * @param entry The entry to wrap.
+     * @return The wrapped entry.
+     */
+    private Entry<ScratchObject, ScratchObject> track(Entry<ScratchObject, ScratchObject> entry)
+    {
+        return new AbstractMap.SimpleEntry<ScratchObject, ScratchObject>(entry) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public ScratchObject setValue(ScratchObject value)
+            {
+                Objects.requireNonNull(value);
+
+                entry.setValue(value);
+                markDirty();
+                return super.setValue(value);
+            }
+        };
     }
 
     @Override
-    public boolean createReferences(ScratchReferenceTable ref, ScratchProject project)
+    protected void collectReferenceFields(List<ScratchObject> fields, ScratchProject project)
     {
-        if (!super.createReferences(ref, project)) {
-            return false;
+        for (Entry<ScratchObject, ScratchObject> entry : entries.entrySet()) {
+            fields.add(entry.getKey());
+            fields.add(entry.getValue());
         }
+    }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Only values are replaced; keys are kept, since replacing them could
+     * merge entries.
+     */
+    @Override
+    protected void replaceReferenceFields(UnaryOperator<ScratchObject> replacement)
+    {
         for (Entry<ScratchObject, ScratchObject> entry : entries.entrySet()) {
-            entry.getKey().createReferences(ref, project);
-            entry.getValue().createReferences(ref, project);
+            ScratchObject value = entry.getValue(), replaced = replacement.apply(value);
+            if (replaced != value) {
+                entry.setValue(replaced);
+                markDirty();
+            }
         }
-
-        return true;
     }
 
     @Override
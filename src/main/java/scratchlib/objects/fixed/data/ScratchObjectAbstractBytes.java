@@ -0,0 +1,160 @@
+package scratchlib.objects.fixed.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import scratchlib.objects.IScratchReferenceType;
+import scratchlib.objects.ScratchObject;
+import scratchlib.objects.ScratchReferenceTable;
+import scratchlib.project.ScratchProject;
+import scratchlib.reader.ScratchInputStream;
+import scratchlib.writer.ScratchOutputStream;
+
+
+/**
+ * Base class for all Scratch reference types that store raw bytes. They differ
+ * only in the size of the units their length is measured in.
+ *
+ * <p>
+ * <b>1 byte</b>: {@link ScratchObjectByteArray}.<br>
+ * <b>2 bytes</b>: {@link ScratchObjectSoundBuffer}.<br>
+ * <b>4 bytes</b>: {@link ScratchObjectBitmap}.
+ *
+ * <p>
+ * When read from a direct buffer (e.g. a memory-mapped file), instances only
+ * hold a read-only view of the source region. A {@code byte[]} is materialized
+ * the first time {@link #getValue()} is called; until then, the source region
+ * is written out as-is. Payloads read from heap buffers or streams are copied
+ * right away, so that they do not keep the whole source in memory.
+ *
+ * <p>
+ * Materialization is safe to trigger from multiple threads.
+ */
+public abstract class ScratchObjectAbstractBytes extends ScratchObject implements IScratchReferenceType
+{
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final int unitSize;
+    private byte[] value;
+    private ByteBuffer source;
+
+    /**
+     * @param classID The ID of the class this object belongs to.
+     * @param unitSize The number of bytes per length unit.
+     */
+    public ScratchObjectAbstractBytes(int classID, int unitSize)
+    {
+        super(classID);
+        this.unitSize = unitSize;
+    }
+
+    /**
+     * @param classID The ID of the class this object belongs to.
+     * @param unitSize The number of bytes per length unit.
+     * @param value The bytes, or null for none (stored as an empty array).
+     * @throws IllegalArgumentException If value.length not multiple of unitSize.
+     */
+    public ScratchObjectAbstractBytes(int classID, int unitSize, byte[] value)
+    {
+        super(classID);
+
+        if (value == null) {
+            value = new byte[0];
+        } else if (value.length % unitSize != 0) {
+            throw new IllegalArgumentException("length not multiple of " + unitSize);
+        }
+        this.unitSize = unitSize;
+        this.value = value;
+    }
+
+    /**
+     * Provides the bytes stored in this object. Since the array may be
+     * modified by the caller, this marks the object dirty; use
+     * {@link #getBuffer()} for read-only access.
+     *
+     * @return The bytes stored in this object.
+     */
+    public synchronized byte[] getValue()
+    {
+        if (value == null && source != null) {
+            value = new byte[source.remaining()];
+            source.duplicate().get(value);
+            source = null;
+        }
+        markDirty();
+        return value;
+    }
+
+    /**
+     * Provides read-only access to the bytes stored in this object without
+     * materializing an array for them.
+     *
+     * @return A read-only buffer of the bytes stored in this object, which is
+     *         empty if there are none.
+     */
+    public synchronized ByteBuffer getBuffer()
+    {
+        if (value != null) {
+            return ByteBuffer.wrap(value).asReadOnlyBuffer();
+        }
+        return source == null ? EMPTY.duplicate() : source.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return The number of bytes stored in this object.
+     */
+    public synchronized int getByteLength()
+    {
+        if (value != null) {
+            return value.length;
+        }
+        return source == null ? 0 : source.remaining();
+    }
+
+    @Override
+    public void writeTo(ScratchOutputStream out, ScratchReferenceTable ref, ScratchProject project) throws IOException
+    {
+        super.writeTo(out, ref, project);
+
+        byte[] bytes;
+        ByteBuffer slice;
+        synchronized (this) {
+            bytes = value;
+            slice = source;
+        }
+
+        if (bytes != null) {
+            out.write32bitUnsignedInt(bytes.length / unitSize);
+            out.write(bytes);
+        } else if (slice != null) {
+            out.write32bitUnsignedInt(slice.remaining() / unitSize);
+            out.write(slice);
+        } else {
+            out.write32bitUnsignedInt(0);
+        }
+    }
+
+    @Override
+    public void readFrom(int id, ScratchInputStream in, ScratchProject project) throws IOException
+    {
+        super.readFrom(id, in, project);
+
+        int length = in.read32bitUnsignedInt();
+        ByteBuffer slice = in.readSlice(length * unitSize);
+
+        synchronized (this) {
+            if (slice.isDirect()) {
+                this.value = null;
+                this.source = slice;
+            } else if (slice.hasArray() && slice.arrayOffset() == 0 && slice.remaining() == slice.array().length) {
+                // private array, e.g. from a plain stream
+                this.value = slice.array();
+                this.source = null;
+            } else {
+                this.value = new byte[slice.remaining()];
+                slice.get(this.value);
+                this.source = null;
+            }
+        }
+    }
+}
@@ -81,6 +81,6 @@ public abstract class ScratchObjectAbstractString extends ScratchObject implemen
         super.readFrom(id, in, project);
 
         int length = in.read32bitUnsignedInt();
-        this.value = new String(in.readFully(length), charset);
+        this.value = in.readString(length, charset);
     }
 }
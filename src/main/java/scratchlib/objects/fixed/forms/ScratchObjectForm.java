@@ -1,7 +1,12 @@
 package scratchlib.objects.fixed.forms;
 
 import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.function.UnaryOperator;
 
+import scratchlib.media.ScratchFormDecoder;
+import scratchlib.media.ScratchFormEncoder;
 import scratchlib.objects.IScratchReferenceType;
 import scratchlib.objects.ScratchObject;
 import scratchlib.objects.ScratchObjects;
@@ -66,6 +71,42 @@ public class ScratchObjectForm extends ScratchObject implements IScratchReferenc
         this.bits = new ScratchOptionalField(bits);
     }
 
+    /**
+     * Creates a 32-bit form from ARGB pixel values.
+     *
+     * @param pixels The array holding the pixel values.
+     * @param offset The index of the top-left pixel.
+     * @param width The image width.
+     * @param height The image height.
+     * @param stride The distance between the starts of two rows.
+     * @return The new form.
+     * @throws IllegalArgumentException If the array is too small for the
+     *             given layout.
+     * @see ScratchFormEncoder#encode(int[], int, int, int, int)
+     */
+    public static ScratchObjectForm fromPixels(int[] pixels, int offset, int width, int height, int stride)
+    {
+        return ScratchFormEncoder.encode(pixels, offset, width, height, stride);
+    }
+
+    /**
+     * Creates a 32-bit form from ARGB pixel values, starting at the buffer's
+     * position.
+     *
+     * @param pixels The buffer holding the pixel values.
+     * @param width The image width.
+     * @param height The image height.
+     * @param stride The distance between the starts of two rows.
+     * @return The new form.
+     * @throws IllegalArgumentException If the buffer is too small for the
+     *             given layout.
+     * @see ScratchFormEncoder#encode(IntBuffer, int, int, int)
+     */
+    public static ScratchObjectForm fromPixels(IntBuffer pixels, int width, int height, int stride)
+    {
+        return ScratchFormEncoder.encode(pixels, width, height, stride);
+    }
+
     /**
      * @return The width of this form (pixels).
      */
@@ -106,17 +147,56 @@ public class ScratchObjectForm extends ScratchObject implements IScratchReferenc
         return (ScratchObjectByteArray) bits.get();
     }
 
-    @Override
-    public boolean createReferences(ScratchReferenceTable ref, ScratchProject project)
+    /**
+     * @return This form's pixels as ARGB values, in row-major order.
+     * @throws IllegalArgumentException If the pixel data is malformed.
+     */
+    public int[] getPixels()
     {
-        if (!super.createReferences(ref, project)) {
-            return false;
-        }
+        return ScratchFormDecoder.decodePixels(this, null);
+    }
 
-        privateOffset.get().createReferences(ref, project);
-        bits.get().createReferences(ref, project);
+    /**
+     * Decodes this form's pixels as ARGB values into the given array.
+     * Elements outside of the rows are left unchanged.
+     *
+     * @param pixels The array to decode into.
+     * @param offset The index of the top-left pixel.
+     * @param stride The distance between the starts of two rows.
+     * @throws IllegalArgumentException If the array is too small for the
+     *             given layout, or if the pixel data is malformed.
+     */
+    public void getPixels(int[] pixels, int offset, int stride)
+    {
+        ScratchFormDecoder.decodePixels(this, pixels, offset, stride);
+    }
+
+    /**
+     * Decodes this form's pixels as ARGB values into the given buffer,
+     * starting at its position. The buffer's position is not changed.
+     *
+     * @param pixels The buffer to decode into.
+     * @param stride The distance between the starts of two rows.
+     * @throws IllegalArgumentException If the buffer is too small for the
+     *             given layout, or if the pixel data is malformed.
+     */
+    public void getPixels(IntBuffer pixels, int stride)
+    {
+        ScratchFormDecoder.decodePixels(this, pixels, stride);
+    }
 
-        return true;
+    @Override
+    protected void collectReferenceFields(List<ScratchObject> fields, ScratchProject project)
+    {
+        fields.add(privateOffset.get());
+        fields.add(bits.get());
+    }
+
+    @Override
+    protected void replaceReferenceFields(UnaryOperator<ScratchObject> replacement)
+    {
+        privateOffset = replaceField(privateOffset, replacement);
+        bits = replaceField(bits, replacement);
     }
 
     @Override
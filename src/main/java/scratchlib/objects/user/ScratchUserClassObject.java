@@ -2,9 +2,11 @@ package scratchlib.objects.user;
 
 import java.io.IOException;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 
 import scratchlib.objects.IScratchReferenceType;
 import scratchlib.objects.ScratchObject;
@@ -124,6 +126,7 @@ public abstract class ScratchUserClassObject extends ScratchObject implements IS
     {
         Objects.requireNonNull(value);
         fields.get(name).field = new ScratchOptionalField(value);
+        markDirty();
     }
 
     /**
@@ -135,19 +138,21 @@ public abstract class ScratchUserClassObject extends ScratchObject implements IS
     }
 
     @Override
-    public boolean createReferences(ScratchReferenceTable ref, ScratchProject project)
+    protected void collectReferenceFields(List<ScratchObject> fields, ScratchProject project)
     {
-        if (!super.createReferences(ref, project)) {
-            return false;
-        }
-
-        for (FieldDescriptor fd : fields.values()) {
+        for (FieldDescriptor fd : this.fields.values()) {
             if (fd.isApplicable(project)) {
-                fd.field.get().createReferences(ref, project);
+                fields.add(fd.field.get());
             }
         }
+    }
 
-        return true;
+    @Override
+    protected void replaceReferenceFields(UnaryOperator<ScratchObject> replacement)
+    {
+        for (FieldDescriptor fd : fields.values()) {
+            fd.field = replaceField(fd.field, replacement);
+        }
     }
 
     @Override
@@ -1,7 +1,12 @@
 package scratchlib.project;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
 import java.util.Map.Entry;
 import java.util.Optional;
 
@@ -79,9 +84,15 @@ public class ScratchProject
      */
     public static final String INFO_KEEP_ON_STAGE = "keepOnStage";
 
+    /**
+     * The size of the buffer used when writing to channels.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final ScratchVersion version;
     private ScratchObjectStore info = new ScratchObjectStore(ScratchObject.NIL);
     private ScratchObjectStore stage = new ScratchObjectStore(ScratchObject.NIL);
+    private Path mappedFile;
 
     /**
      * @param version This project's version.
@@ -120,6 +131,27 @@ public class ScratchProject
         return version;
     }
 
+    /**
+     * @return The file this project's media payloads are mapped from, or null
+     *         if the project was not read lazily from a file.
+     */
+    public Path getMappedFile()
+    {
+        return mappedFile;
+    }
+
+    /**
+     * Sets the file this project's media payloads are mapped from. This is
+     * done when reading with lazy media, so that writers can avoid truncating
+     * the mapped file.
+     *
+     * @param mappedFile The mapped file, or null for none.
+     */
+    public void setMappedFile(Path mappedFile)
+    {
+        this.mappedFile = mappedFile;
+    }
+
     /**
      * @return The object that is the project's info section.
      */
@@ -230,6 +262,11 @@ public class ScratchProject
     /**
      * Writes this project to the given output stream.
      *
+     * <p>
+     * Since the info section's size has to precede it, the section is buffered
+     * in memory first. Prefer {@link #writeTo(SeekableByteChannel)} where
+     * possible.
+     *
      * @param out The stream to write to.
      * @throws IOException
      */
@@ -247,6 +284,48 @@ public class ScratchProject
         stage.writeTo(out, this);
     }
 
+    /**
+     * Writes this project to the given channel, starting at its current
+     * position. The channel is not closed.
+     *
+     * <p>
+     * As opposed to {@link #writeTo(ScratchOutputStream)}, the info section is
+     * not buffered in memory: a slot is reserved for its size, the section is
+     * streamed out, and the slot is patched afterwards.
+     *
+     * @param channel The channel to write to.
+     * @throws IOException
+     */
+    public void writeTo(SeekableByteChannel channel) throws IOException
+    {
+        ScratchOutputStream out = new ScratchOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+
+        // write header
+        out.writeString(version.getHeader());
+
+        // write info section, reserving its size
+        out.write32bitUnsignedInt(0);
+        out.flush();
+        long infoStart = channel.position();
+
+        info.writeTo(out, this);
+        out.flush();
+        long infoEnd = channel.position();
+
+        ByteBuffer infoSize = ByteBuffer.allocate(4).putInt((int) (infoEnd - infoStart));
+        infoSize.flip();
+        channel.position(infoStart - infoSize.remaining());
+        while (infoSize.hasRemaining()) {
+            channel.write(infoSize);
+        }
+        channel.position(infoEnd);
+
+        // write stage section
+        stage.writeTo(out, this);
+        out.flush();
+    }
+
     /**
      * Writes the given object store into a byte array output stream.
      *
@@ -0,0 +1,361 @@
+package scratchlib.reader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import scratchlib.project.ScratchProject;
+
+
+/**
+ * Reads many project files in parallel, using a {@link ScratchReader} for the
+ * individual files.
+ *
+ * <p>
+ * Files are parsed on an executor (by default, the common fork-join pool),
+ * while results are delivered on the calling thread, either in submission
+ * order or as they complete. Only a bounded number of files is in flight at
+ * any time, so arbitrarily long streams of paths can be processed. Errors are
+ * isolated per file: a file that cannot be read produces a failed result, but
+ * does not stop the batch.
+ *
+ * <p>
+ * Reading is safe for concurrent use: the class lookup in {@code ScratchObjects}
+ * is immutable after initialization, and every read creates its own project
+ * and object graph.
+ */
+public class ScratchBatchReader
+{
+    private final ScratchReader reader;
+    private ExecutorService executor = ForkJoinPool.commonPool();
+    private int maxPending = 2 * Runtime.getRuntime().availableProcessors();
+    private boolean ordered = true;
+
+    /**
+     * @param reader The reader to use for individual files.
+     */
+    public ScratchBatchReader(ScratchReader reader)
+    {
+        this.reader = Objects.requireNonNull(reader);
+    }
+
+    /**
+     * Sets the executor to parse files on. The default is the common fork-join
+     * pool. The executor is not shut down by this class.
+     *
+     * @param executor The executor.
+     */
+    public void setExecutor(ExecutorService executor)
+    {
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * Sets the maximum number of files being parsed or waiting for delivery
+     * at the same time. The default is twice the number of processors.
+     *
+     * @param maxPending The maximum number of pending files.
+     * @throws IllegalArgumentException If maxPending &lt; 1.
+     */
+    public void setMaxPending(int maxPending)
+    {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("maxPending may not be < 1");
+        }
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Sets whether results are delivered in the order the paths were given
+     * (true; the default) or as soon as they complete (false).
+     *
+     * @param ordered Whether to deliver results in order.
+     */
+    public void setOrdered(boolean ordered)
+    {
+        this.ordered = ordered;
+    }
+
+    /**
+     * Reads all Scratch and BYOB project files (".sb" and ".ypr") directly
+     * contained in the given directory, in lexicographic order.
+     *
+     * @param dir The directory to read.
+     * @param consumer The consumer for the results, called on this thread.
+     * @return Statistics about the batch.
+     * @throws IOException If the directory cannot be listed.
+     * @throws InterruptedException If interrupted while waiting for results.
+     */
+    public Summary readAll(Path dir, Consumer<Result> consumer) throws IOException, InterruptedException
+    {
+        try (Stream<Path> files = Files.list(dir)) {
+            Stream<Path> projects = files.filter(ScratchBatchReader::isProjectFile).sorted()
+                    .collect(Collectors.toList()).stream();
+            return readAll(projects, consumer);
+        }
+    }
+
+    /**
+     * Reads all the given project files.
+     *
+     * @param paths The files to read.
+     * @param consumer The consumer for the results, called on this thread.
+     * @return Statistics about the batch.
+     * @throws InterruptedException If interrupted while waiting for results.
+     */
+    public Summary readAll(Stream<Path> paths, Consumer<Result> consumer) throws InterruptedException
+    {
+        long start = System.nanoTime();
+        Summary summary = new Summary();
+
+        CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+        Deque<Future<Result>> pending = new ArrayDeque<>();
+
+        try {
+            Iterator<Path> it = paths.iterator();
+            while (it.hasNext()) {
+                Path path = it.next();
+                if (pending.size() >= maxPending) {
+                    deliver(next(pending, completion), summary, consumer);
+                }
+                pending.add(ordered ? executor.submit(() -> readOne(path)) : completion.submit(() -> readOne(path)));
+            }
+            while (!pending.isEmpty()) {
+                deliver(next(pending, completion), summary, consumer);
+            }
+        } finally {
+            for (Future<Result> future : pending) {
+                future.cancel(true);
+            }
+        }
+
+        summary.nanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    /**
+     * Removes and returns the next future to deliver, waiting for one to
+     * complete if results are delivered as completed.
+     *
+     * @param pending The pending futures, in submission order.
+     * @param completion The completion service used in unordered mode.
+     * @return The next future.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private Future<Result> next(Deque<Future<Result>> pending, CompletionService<Result> completion)
+            throws InterruptedException
+    {
+        if (ordered) {
+            return pending.removeFirst();
+        }
+        Future<Result> future = completion.take();
+        pending.remove(future);
+        return future;
+    }
+
+    /**
+     * Waits for the given future and hands its result to the consumer.
+     *
+     * @param future The future to wait for.
+     * @param summary The summary to update.
+     * @param consumer The consumer.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private static void deliver(Future<Result> future, Summary summary, Consumer<Result> consumer)
+            throws InterruptedException
+    {
+        Result result;
+        try {
+            result = future.get();
+        } catch (ExecutionException e) {
+            // only VirtualMachineErrors escape from reading
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("unexpected failure", e.getCause());
+        }
+
+        ++summary.files;
+        summary.bytes += result.size;
+        if (!result.isSuccess()) {
+            ++summary.failures;
+        }
+
+        consumer.accept(result);
+    }
+
+    /**
+     * Reads a single file, capturing any failure in the result. Errors other
+     * than exceptions (e.g. an {@code InternalError} from a mapped file that
+     * was truncated) are wrapped in an {@code IOException}; only
+     * {@code VirtualMachineError}s other than {@code InternalError}, such as
+     * running out of memory, are propagated.
+     *
+     * @param path The file to read.
+     * @return The result.
+     */
+    private Result readOne(Path path)
+    {
+        long start = System.nanoTime();
+        try {
+            long size = Files.size(path);
+            ScratchProject project = reader.read(path);
+            return new Result(path, project, null, size, System.nanoTime() - start);
+        } catch (Exception e) {
+            return new Result(path, null, e, 0, System.nanoTime() - start);
+        } catch (InternalError e) {
+            // raised for faults on mapped files, so specific to this file
+            return new Result(path, null, new IOException("reading failed", e), 0, System.nanoTime() - start);
+        } catch (VirtualMachineError e) {
+            throw e;
+        } catch (Throwable e) {
+            return new Result(path, null, new IOException("reading failed", e), 0, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param path The path to check.
+     * @return Whether the path is a regular file with a project extension.
+     */
+    private static boolean isProjectFile(Path path)
+    {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return (name.endsWith(".sb") || name.endsWith(".ypr")) && Files.isRegularFile(path);
+    }
+
+    /**
+     * The outcome of reading a single file: either a project or an error.
+     */
+    public static final class Result
+    {
+        private final Path path;
+        private final ScratchProject project;
+        private final Exception error;
+        private final long size;
+        private final long nanos;
+
+        private Result(Path path, ScratchProject project, Exception error, long size, long nanos)
+        {
+            this.path = path;
+            this.project = project;
+            this.error = error;
+            this.size = size;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return The file that was read.
+         */
+        public Path getPath()
+        {
+            return path;
+        }
+
+        /**
+         * @return Whether the file was read successfully.
+         */
+        public boolean isSuccess()
+        {
+            return error == null;
+        }
+
+        /**
+         * @return The project read, or null if reading failed.
+         */
+        public ScratchProject getProject()
+        {
+            return project;
+        }
+
+        /**
+         * @return The reason reading failed, or null if it succeeded.
+         */
+        public Exception getError()
+        {
+            return error;
+        }
+
+        /**
+         * @return The time taken to read the file, in nanoseconds.
+         */
+        public long getNanos()
+        {
+            return nanos;
+        }
+    }
+
+    /**
+     * Statistics about a completed batch.
+     */
+    public static final class Summary
+    {
+        private int files, failures;
+        private long bytes, nanos;
+
+        private Summary()
+        {
+        }
+
+        /**
+         * @return The number of files processed.
+         */
+        public int getFiles()
+        {
+            return files;
+        }
+
+        /**
+         * @return The number of files that could not be read.
+         */
+        public int getFailures()
+        {
+            return failures;
+        }
+
+        /**
+         * @return The total size of all files read successfully, in bytes.
+         */
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        /**
+         * @return The wall-clock time taken by the batch, in nanoseconds.
+         */
+        public long getNanos()
+        {
+            return nanos;
+        }
+
+        /**
+         * @return The throughput in files per second.
+         */
+        public double getFilesPerSecond()
+        {
+            return nanos == 0 ? 0 : files * 1e9 / nanos;
+        }
+
+        /**
+         * @return The throughput in bytes per second.
+         */
+        public double getBytesPerSecond()
+        {
+            return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package scratchlib.reader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Implementation of {@link ScratchInputStream} that reads directly from a
+ * {@code ByteBuffer}, e.g. a memory-mapped file, instead of wrapping another
+ * stream. All methods work on the buffer without any intermediate copies.
+ */
+public class ScratchByteBufferInputStream extends ScratchInputStream
+{
+    private final ByteBuffer buffer;
+    private int mark = -1;
+    private boolean retainRecords;
+
+    /**
+     * @param buffer The buffer to read from, starting at its current position.
+     */
+    public ScratchByteBufferInputStream(ByteBuffer buffer)
+    {
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @return The current position within the underlying buffer.
+     */
+    public int getPosition()
+    {
+        return buffer.position();
+    }
+
+    /**
+     * @return A read-only view of the underlying buffer. Positions within the
+     *         view correspond to those reported by {@link #getPosition()}.
+     */
+    public ByteBuffer getBuffer()
+    {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return Whether objects read from this stream keep their original
+     *         records.
+     *
+     * @see #setRetainRecords(boolean)
+     */
+    public boolean isRetainRecords()
+    {
+        return retainRecords;
+    }
+
+    /**
+     * Sets whether objects read through
+     * {@link scratchlib.objects.ScratchObjectStore#readFrom(ScratchInputStream, scratchlib.project.ScratchProject)}
+     * shall keep their original records, so that they can be copied verbatim
+     * when written again unmodified. The default is false.
+     *
+     * <p>
+     * Every such object refers to the underlying buffer, so the buffer stays
+     * in memory (or mapped) as long as any of them is clean and reachable.
+     *
+     * @param retainRecords Whether to keep original records.
+     */
+    public void setRetainRecords(boolean retainRecords)
+    {
+        this.retainRecords = retainRecords;
+    }
+
+    /**
+     * Creates an independent stream over the same buffer, positioned at the
+     * given index. Reading from either stream does not affect the other.
+     *
+     * @param position The position within the underlying buffer.
+     * @return The new stream.
+     */
+    public ScratchByteBufferInputStream duplicate(int position)
+    {
+        ScratchByteBufferInputStream copy = new ScratchByteBufferInputStream(buffer);
+        copy.buffer.position(position);
+        copy.setStringPool(getStringPool());
+        copy.retainRecords = retainRecords;
+        return copy;
+    }
+
+    /**
+     * Makes sure that at least the given amount of bytes remain in the buffer.
+     *
+     * @param length The amount of bytes required.
+     * @throws EOFException If fewer bytes remain.
+     */
+    private void require(int length) throws EOFException
+    {
+        if (length < 0 || buffer.remaining() < length) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public int read()
+    {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n)
+    {
+        int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available()
+    {
+        return buffer.remaining();
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    @Override
+    public synchronized void mark(int readlimit)
+    {
+        mark = buffer.position();
+    }
+
+    @Override
+    public synchronized void reset() throws IOException
+    {
+        if (mark < 0) {
+            throw new IOException("mark not set");
+        }
+        buffer.position(mark);
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public byte[] readFully(int length) throws IOException
+    {
+        require(length);
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return bytes;
+    }
+
+    @Override
+    public void skipFully(long length) throws IOException
+    {
+        if (length > buffer.remaining()) {
+            throw new EOFException();
+        }
+        if (length > 0) {
+            buffer.position(buffer.position() + (int) length);
+        }
+    }
+
+    @Override
+    public ByteBuffer readSlice(int length) throws IOException
+    {
+        require(length);
+
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+
+        return slice.asReadOnlyBuffer();
+    }
+
+    @Override
+    public String readString(int length) throws IOException
+    {
+        return decode(length, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String readString(int length, Charset charset) throws IOException
+    {
+        if (getStringPool() != null) {
+            return getStringPool().decode(readSlice(length), charset);
+        }
+        return decode(length, charset);
+    }
+
+    /**
+     * Decodes a string of the given length directly from the buffer.
+     *
+     * @param length The string length in bytes.
+     * @param charset The charset to decode with.
+     * @return The string read.
+     * @throws IOException If not enough bytes remain.
+     */
+    private String decode(int length, Charset charset) throws IOException
+    {
+        require(length);
+
+        String s;
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            s = new String(buffer.array(), offset, length, charset);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+            s = new String(bytes, charset);
+        }
+        buffer.position(buffer.position() + length);
+
+        return s;
+    }
+
+    @Override
+    public int read32bitUnsignedInt() throws IOException
+    {
+        require(4);
+        return buffer.getInt();
+    }
+
+    @Override
+    public int read24bitUnsignedInt() throws IOException
+    {
+        require(3);
+
+        int b0 = buffer.get() & 0xFF;
+        int b1 = buffer.get() & 0xFF;
+        int b2 = buffer.get() & 0xFF;
+
+        return (b0 << 16) | (b1 << 8) | b2;
+    }
+
+    @Override
+    public int read16bitUnsignedInt() throws IOException
+    {
+        require(2);
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    @Override
+    public double read64bitDecimal() throws IOException
+    {
+        require(8);
+        return buffer.getDouble();
+    }
+}
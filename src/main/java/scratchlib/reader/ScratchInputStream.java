@@ -1,8 +1,11 @@
 package scratchlib.reader;
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
 
@@ -13,6 +16,16 @@ import java.nio.charset.StandardCharsets;
 public class ScratchInputStream extends InputStream
 {
     private final DataInputStream in;
+    private ScratchStringPool stringPool;
+
+    /**
+     * Constructor for subclasses that do not wrap another stream and instead
+     * override all reading methods.
+     */
+    protected ScratchInputStream()
+    {
+        this.in = null;
+    }
 
     /**
      * @param in The input stream to wrap.
@@ -28,6 +41,12 @@ public class ScratchInputStream extends InputStream
         return in.read();
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        return in.read(b, off, len);
+    }
+
     @Override
     public long skip(long n) throws IOException
     {
@@ -64,6 +83,26 @@ public class ScratchInputStream extends InputStream
         return in.markSupported();
     }
 
+    /**
+     * @return The pool used for decoding strings, or null if none.
+     */
+    public ScratchStringPool getStringPool()
+    {
+        return stringPool;
+    }
+
+    /**
+     * Sets the pool used for decoding strings through
+     * {@link #readString(int, Charset)}. The default is null, in which case
+     * every string is decoded on its own.
+     *
+     * @param stringPool The pool to use, or null for none.
+     */
+    public void setStringPool(ScratchStringPool stringPool)
+    {
+        this.stringPool = stringPool;
+    }
+
     /**
      * Reads the given amount of bytes into an array of exactly that length.
      *
@@ -79,6 +118,41 @@ public class ScratchInputStream extends InputStream
         return bytes;
     }
 
+    /**
+     * Skips exactly the given amount of bytes.
+     *
+     * @param length The amount of bytes to skip.
+     * @throws IOException If the end of the stream is reached first.
+     */
+    public void skipFully(long length) throws IOException
+    {
+        while (length > 0) {
+            long skipped = skip(length);
+            if (skipped <= 0) {
+                if (read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Reads the given amount of bytes and provides them as a buffer. Streams
+     * that are backed by a buffer themselves return a read-only view of the
+     * source region without copying; this implementation copies the bytes
+     * into a new array and wraps it.
+     *
+     * @param length The amount of bytes to read.
+     * @return A buffer containing the bytes read.
+     * @throws IOException
+     */
+    public ByteBuffer readSlice(int length) throws IOException
+    {
+        return ByteBuffer.wrap(readFully(length));
+    }
+
     /**
      * Reads a US-ASCII string of the given length, measured in bytes.
      *
@@ -91,6 +165,26 @@ public class ScratchInputStream extends InputStream
         return new String(readFully(length), StandardCharsets.US_ASCII);
     }
 
+    /**
+     * Reads a string of the given length, measured in bytes, and decodes it
+     * with the given charset. If a string pool is set, the pooled instance is
+     * returned for strings decoded before.
+     *
+     * @param length The string length in bytes.
+     * @param charset The charset to decode with.
+     * @return The string read.
+     * @throws IOException
+     *
+     * @see #setStringPool(ScratchStringPool)
+     */
+    public String readString(int length, Charset charset) throws IOException
+    {
+        if (stringPool != null) {
+            return stringPool.decode(readSlice(length), charset);
+        }
+        return new String(readFully(length), charset);
+    }
+
     /**
      * Reads 4 bytes (big-endian) and converts them to an int.
      *
@@ -1,21 +1,124 @@
 package scratchlib.reader;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+import scratchlib.objects.ScratchObject;
 import scratchlib.objects.ScratchObjectStore;
+import scratchlib.objects.ScratchObjectStoreIndex;
 import scratchlib.project.ScratchProject;
 import scratchlib.project.ScratchVersion;
 
 
 /**
- * Allows reading {@link ScratchProject} instances from {@code File} and
- * {@code InputStream}.
+ * Allows reading {@link ScratchProject} instances from {@code File},
+ * {@code Path} and {@code InputStream}.
  */
 public class ScratchReader
 {
+    /**
+     * The size of the file header: 10 bytes of version string, followed by
+     * the 32-bit size of the info section.
+     */
+    private static final int HEADER_SIZE = 14;
+
+    private boolean lazyMedia;
+    private boolean retainRecords;
+    private ScratchStringPool stringPool;
+
+    /**
+     * @return Whether media payloads of files are loaded lazily.
+     *
+     * @see #setLazyMedia(boolean)
+     */
+    public boolean isLazyMedia()
+    {
+        return lazyMedia;
+    }
+
+    /**
+     * Sets whether media payloads (byte arrays, bitmaps and sound buffers)
+     * of project files shall be loaded lazily. The default is false.
+     *
+     * <p>
+     * When enabled, project files are memory-mapped. Payload objects only
+     * record the region they occupy, and their bytes are paged in the first
+     * time they are accessed (e.g. through {@code getValue()}). Tools that
+     * never touch media thus read only a fraction of the file.
+     *
+     * <p>
+     * Since payloads remain backed by the file, it must not be modified or
+     * truncated while projects read from it are still in use. Projects read
+     * this way remember the file (see {@link ScratchProject#getMappedFile()}),
+     * and {@code ScratchWriter} always replaces it atomically when such a
+     * project is written back to it.
+     *
+     * @param lazyMedia Whether to load media lazily.
+     */
+    public void setLazyMedia(boolean lazyMedia)
+    {
+        this.lazyMedia = lazyMedia;
+    }
+
+    /**
+     * @return Whether objects read from files keep their original records.
+     *
+     * @see #setRetainRecords(boolean)
+     */
+    public boolean isRetainRecords()
+    {
+        return retainRecords;
+    }
+
+    /**
+     * Sets whether objects read from project files shall keep their original
+     * records. The default is false.
+     *
+     * <p>
+     * When enabled, objects that are still unmodified when a project is saved
+     * again are copied verbatim instead of being encoded, which makes saving
+     * after small edits much cheaper. The cost is that the whole file stays in
+     * memory (or mapped) as long as any unmodified object of the project is
+     * still reachable.
+     *
+     * @param retainRecords Whether to keep original records.
+     */
+    public void setRetainRecords(boolean retainRecords)
+    {
+        this.retainRecords = retainRecords;
+    }
+
+    /**
+     * @return The pool used for decoding strings, or null if none.
+     *
+     * @see #setStringPool(ScratchStringPool)
+     */
+    public ScratchStringPool getStringPool()
+    {
+        return stringPool;
+    }
+
+    /**
+     * Sets the pool used for decoding string objects. The default is null, in
+     * which case every string is decoded on its own. With a pool, strings
+     * occurring repeatedly (e.g. block selectors) are decoded once and share
+     * a single {@code String} instance. The pool can be shared with other
+     * readers, e.g. {@link ScratchStringPool#shared()}.
+     *
+     * @param stringPool The pool to use, or null for none.
+     */
+    public void setStringPool(ScratchStringPool stringPool)
+    {
+        this.stringPool = stringPool;
+    }
+
     /**
      * Reads a {@link ScratchProject} from the given project file. The version
      * is determined automatically.
@@ -26,9 +129,32 @@ public class ScratchReader
      */
     public ScratchProject read(File file) throws IOException
     {
-        try (FileInputStream in = new FileInputStream(file)) {
-            return read(in);
+        return read(file.toPath());
+    }
+
+    /**
+     * Reads a {@link ScratchProject} from the given project file. The version
+     * is determined automatically.
+     *
+     * <p>
+     * The file is loaded into a buffer and parsed directly from there. If lazy
+     * media is enabled, the file is memory-mapped instead.
+     *
+     * @param path The project file to read.
+     * @return The project that was read.
+     * @throws IOException If an I/O error occurs.
+     *
+     * @see #setLazyMedia(boolean)
+     */
+    public ScratchProject read(Path path) throws IOException
+    {
+        ScratchByteBufferInputStream in = new ScratchByteBufferInputStream(load(path));
+        in.setRetainRecords(retainRecords);
+        ScratchProject project = readProject(in);
+        if (lazyMedia) {
+            project.setMappedFile(path);
         }
+        return project;
     }
 
     /**
@@ -42,23 +168,287 @@ public class ScratchReader
     public ScratchProject read(InputStream in) throws IOException
     {
         try (ScratchInputStream sin = new ScratchInputStream(in)) {
+            return readProject(sin);
+        }
+    }
+
+    /**
+     * Reads only the info section (author, comment, thumbnail, history, ...)
+     * of the given project file. The stage section is not parsed and remains
+     * at its default value in the returned project.
+     *
+     * @param file The project file to read.
+     * @return The project, with only its info section read.
+     * @throws IOException If an I/O error occurs.
+     */
+    public ScratchProject readInfo(File file) throws IOException
+    {
+        return readInfo(file.toPath());
+    }
 
-            ScratchVersion version = ScratchVersion.lookupHeader(sin.readString(10));
-            if (version == null) {
-                throw new IOException("Scratch version unknown");
+    /**
+     * Reads only the info section (author, comment, thumbnail, history, ...)
+     * of the given project file. The stage section is not parsed and remains
+     * at its default value in the returned project.
+     *
+     * <p>
+     * Only the header and the info section are loaded; the info section's
+     * size stored in the header is used to avoid touching the remainder. Since
+     * that size is redundant, the info section is read from the remainder of
+     * the file instead if the size is implausible or too small.
+     *
+     * @param path The project file to read.
+     * @return The project, with only its info section read.
+     * @throws IOException If an I/O error occurs.
+     */
+    public ScratchProject readInfo(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ScratchInputStream hin = readFileHeader(channel);
+            ScratchProject project = readHeader(hin);
+            if (lazyMedia) {
+                project.setMappedFile(path);
+            }
+            long infoSize = hin.read32bitUnsignedInt() & 0xFFFFFFFFL;
+            long remaining = Math.max(0, channel.size() - HEADER_SIZE);
+
+            if (infoSize > 0 && infoSize < remaining) {
+                try {
+                    project.setInfoSection(readInfoSection(load(channel, HEADER_SIZE, infoSize), project));
+                    return project;
+                } catch (IOException e) {
+                    // size field is wrong, use the store's own length
+                }
             }
 
-            ScratchProject project = new ScratchProject(version);
+            project.setInfoSection(readInfoSection(load(channel, HEADER_SIZE, remaining), project));
+            return project;
+        }
+    }
+
+    /**
+     * Reads the info section from the given buffer.
+     *
+     * @param info The buffer, starting with the info section.
+     * @param project The project reading for.
+     * @return The info section.
+     * @throws IOException If an I/O error occurs.
+     */
+    private ScratchObjectStore readInfoSection(ByteBuffer info, ScratchProject project) throws IOException
+    {
+        ScratchInputStream in = new ScratchByteBufferInputStream(info);
+        in.setStringPool(stringPool);
+        return ScratchObjectStore.readFrom(in, project);
+    }
+
+    /**
+     * Reads only the info section (author, comment, thumbnail, history, ...)
+     * from the given input stream. The stage section is not parsed and remains
+     * at its default value in the returned project. The stream is not read any
+     * further than the end of the info section.
+     *
+     * @param in The input stream to read from.
+     * @return The project, with only its info section read.
+     * @throws IOException If an I/O error occurs.
+     */
+    public ScratchProject readInfo(InputStream in) throws IOException
+    {
+        try (ScratchInputStream sin = new ScratchInputStream(in)) {
+            sin.setStringPool(stringPool);
+            ScratchProject project = readHeader(sin);
 
             // skip infoSize (redundant, since object store has own length)
             sin.read32bitUnsignedInt();
 
-            // read info, then read contents
             project.setInfoSection(ScratchObjectStore.readFrom(sin, project));
-            project.setStageSection(ScratchObjectStore.readFrom(sin, project));
 
             return project;
+        }
+    }
+
+    /**
+     * Builds an index over the stage section of the given project file, for
+     * use with {@link #readObject(Path, ScratchObjectStoreIndex, int)}. The
+     * index can be saved alongside the file so that it needs to be built only
+     * once.
+     *
+     * <p>
+     * The info section is skipped using its size stored in the header.
+     *
+     * @param path The project file to index.
+     * @return The index of the file's stage section.
+     * @throws IOException If an I/O error occurs.
+     */
+    public ScratchObjectStoreIndex indexStage(Path path) throws IOException
+    {
+        ScratchByteBufferInputStream in = new ScratchByteBufferInputStream(load(path));
+        ScratchProject project = readHeader(in);
+
+        // skip the info section
+        in.skipFully(in.read32bitUnsignedInt() & 0xFFFFFFFFL);
 
+        return ScratchObjectStoreIndex.build(in, project);
+    }
+
+    /**
+     * Reads a single object from the stage section of the given project file,
+     * using an index built by {@link #indexStage(Path)}. Only the object and
+     * the objects reachable from it are read and decoded: their records are
+     * read individually, or paged in from the mapped file if lazy media is
+     * enabled.
+     *
+     * @param path The project file to read.
+     * @param index The index of the file's stage section.
+     * @param referenceID The reference ID of the object to read.
+     * @return The object that was read.
+     * @throws IOException If an I/O error occurs or the index does not match
+     *             the file.
+     */
+    public ScratchObject readObject(Path path, ScratchObjectStoreIndex index, int referenceID) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ScratchProject project = readHeader(readFileHeader(channel));
+
+            if (lazyMedia) {
+                return index.decode(load(channel, 0, channel.size()), referenceID, project);
+            }
+            return index.decode(channel, referenceID, project);
         }
     }
+
+    /**
+     * Reads all Scratch and BYOB project files in the given directory in
+     * parallel, delivering the results in order. Use
+     * {@link ScratchBatchReader} directly for more control.
+     *
+     * @param dir The directory to read.
+     * @param consumer The consumer for the results, called on this thread.
+     * @return Statistics about the batch.
+     * @throws IOException If the directory cannot be listed.
+     * @throws InterruptedException If interrupted while waiting for results.
+     */
+    public ScratchBatchReader.Summary readAll(Path dir, Consumer<ScratchBatchReader.Result> consumer)
+            throws IOException, InterruptedException
+    {
+        return new ScratchBatchReader(this).readAll(dir, consumer);
+    }
+
+    /**
+     * Reads all the given project files in parallel, delivering the results in
+     * order. Use {@link ScratchBatchReader} directly for more control.
+     *
+     * @param paths The files to read.
+     * @param consumer The consumer for the results, called on this thread.
+     * @return Statistics about the batch.
+     * @throws InterruptedException If interrupted while waiting for results.
+     */
+    public ScratchBatchReader.Summary readAll(Stream<Path> paths, Consumer<ScratchBatchReader.Result> consumer)
+            throws InterruptedException
+    {
+        return new ScratchBatchReader(this).readAll(paths, consumer);
+    }
+
+    /**
+     * Reads a {@link ScratchProject} from the given Scratch input stream. The
+     * version is determined automatically.
+     *
+     * @param sin The input stream to read from.
+     * @return The project that was read.
+     * @throws IOException If an I/O error occurs.
+     */
+    private ScratchProject readProject(ScratchInputStream sin) throws IOException
+    {
+        sin.setStringPool(stringPool);
+        ScratchProject project = readHeader(sin);
+
+        // skip infoSize (redundant, since object store has own length)
+        sin.read32bitUnsignedInt();
+
+        // read info, then read contents
+        project.setInfoSection(ScratchObjectStore.readFrom(sin, project));
+        project.setStageSection(ScratchObjectStore.readFrom(sin, project));
+
+        return project;
+    }
+
+    /**
+     * Reads the version header and creates an empty project for it.
+     *
+     * @param sin The input stream to read from.
+     * @return A new project of the version read.
+     * @throws IOException If an I/O error occurs or the version is unknown.
+     */
+    private ScratchProject readHeader(ScratchInputStream sin) throws IOException
+    {
+        ScratchVersion version = ScratchVersion.lookupHeader(sin.readString(10));
+        if (version == null) {
+            throw new IOException("Scratch version unknown");
+        }
+
+        return new ScratchProject(version);
+    }
+
+    /**
+     * Reads the file header (version and info section size) from the start of
+     * the given channel.
+     *
+     * @param channel The channel to read from.
+     * @return A stream over the header.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static ScratchInputStream readFileHeader(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // keep reading
+        }
+        header.flip();
+
+        return new ScratchByteBufferInputStream(header);
+    }
+
+    /**
+     * Provides the contents of the given file as a buffer. Depending on the
+     * lazy media setting, the file is either mapped or read into the heap.
+     *
+     * @param path The file to load.
+     * @return A buffer containing the file contents.
+     * @throws IOException If an I/O error occurs.
+     */
+    private ByteBuffer load(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return load(channel, 0, channel.size());
+        }
+    }
+
+    /**
+     * Provides the given region of a file channel as a buffer. Depending on
+     * the lazy media setting, the region is either mapped or read into the
+     * heap.
+     *
+     * @param channel The channel to load from.
+     * @param position The region's start position.
+     * @param size The region's size in bytes.
+     * @return A buffer containing the region's contents.
+     * @throws IOException If an I/O error occurs.
+     */
+    private ByteBuffer load(FileChannel channel, long position, long size) throws IOException
+    {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("file too large");
+        }
+
+        if (lazyMedia) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+            // keep reading
+        }
+        buffer.flip();
+
+        return buffer;
+    }
 }
@@ -0,0 +1,190 @@
+package scratchlib.reader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Cache of decoded strings, keyed on their encoded bytes and charset. Reading
+ * through a pool decodes each distinct string only once; all later
+ * occurrences share the same {@code String} instance. This pays off for
+ * projects with many scripts, in which the same selectors and block specs
+ * occur thousands of times.
+ *
+ * <p>
+ * Only strings up to a maximum length are pooled, and the pool stops growing
+ * once it holds a maximum number of strings. Pools are safe for use by
+ * multiple threads, so a single pool can be shared by all readers (see
+ * {@link #shared()}).
+ *
+ * @see ScratchInputStream#setStringPool(ScratchStringPool)
+ */
+public class ScratchStringPool
+{
+    /**
+     * The default maximum number of strings held.
+     */
+    public static final int DEFAULT_MAX_SIZE = 65536;
+    /**
+     * The default maximum length, in bytes, of strings that are pooled.
+     */
+    public static final int DEFAULT_MAX_LENGTH = 256;
+
+    private static final ScratchStringPool SHARED = new ScratchStringPool();
+
+    private final ConcurrentMap<Key, String> strings = new ConcurrentHashMap<>();
+    private final int maxSize, maxLength;
+
+    /**
+     * Creates a pool with the default limits.
+     */
+    public ScratchStringPool()
+    {
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param maxSize The maximum number of strings held.
+     * @param maxLength The maximum length, in bytes, of strings that are pooled.
+     * @throws IllegalArgumentException If any limit is negative.
+     */
+    public ScratchStringPool(int maxSize, int maxLength)
+    {
+        if (maxSize < 0 || maxLength < 0) {
+            throw new IllegalArgumentException("limits may not be negative");
+        }
+        this.maxSize = maxSize;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return A global pool with the default limits.
+     */
+    public static ScratchStringPool shared()
+    {
+        return SHARED;
+    }
+
+    /**
+     * Decodes the remaining bytes of the given buffer with the given charset,
+     * returning the pooled instance if there is one. The buffer's position is
+     * not changed.
+     *
+     * @param bytes The encoded string.
+     * @param charset The charset to decode with.
+     * @return The decoded string.
+     */
+    public String decode(ByteBuffer bytes, Charset charset)
+    {
+        if (bytes.remaining() > maxLength) {
+            return decodeDirect(bytes, charset);
+        }
+
+        Key probe = new Key(bytes, charset);
+        String s = strings.get(probe);
+        if (s != null) {
+            return s;
+        }
+
+        s = decodeDirect(bytes, charset);
+        if (strings.size() < maxSize) {
+            String existing = strings.putIfAbsent(probe.copy(), s);
+            if (existing != null) {
+                return existing;
+            }
+        }
+
+        return s;
+    }
+
+    /**
+     * @return The number of strings held.
+     */
+    public int size()
+    {
+        return strings.size();
+    }
+
+    /**
+     * Removes all strings from this pool.
+     */
+    public void clear()
+    {
+        strings.clear();
+    }
+
+    /**
+     * Decodes the remaining bytes of the given buffer without pooling.
+     *
+     * @param bytes The encoded string.
+     * @param charset The charset to decode with.
+     * @return The decoded string.
+     */
+    private static String decodeDirect(ByteBuffer bytes, Charset charset)
+    {
+        if (bytes.hasArray()) {
+            return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), charset);
+        }
+
+        byte[] array = new byte[bytes.remaining()];
+        bytes.duplicate().get(array);
+        return new String(array, charset);
+    }
+
+    /**
+     * Identifies a string by its encoded bytes and charset.
+     */
+    private static final class Key
+    {
+        private final ByteBuffer bytes;
+        private final Charset charset;
+        private final int hash;
+
+        /**
+         * @param bytes The encoded string.
+         * @param charset The charset.
+         */
+        public Key(ByteBuffer bytes, Charset charset)
+        {
+            this(bytes, charset, 31 * charset.hashCode() + bytes.hashCode());
+        }
+
+        private Key(ByteBuffer bytes, Charset charset, int hash)
+        {
+            this.bytes = bytes;
+            this.charset = charset;
+            this.hash = hash;
+        }
+
+        /**
+         * @return A key with a private copy of the bytes, for storing.
+         */
+        public Key copy()
+        {
+            byte[] array = new byte[bytes.remaining()];
+            bytes.duplicate().get(array);
+            return new Key(ByteBuffer.wrap(array), charset, hash);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && charset.equals(other.charset) && bytes.equals(other.bytes);
+        }
+    }
+}
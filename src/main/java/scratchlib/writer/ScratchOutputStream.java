@@ -13,6 +13,8 @@ import java.nio.charset.StandardCharsets;
 public class ScratchOutputStream extends OutputStream
 {
     private final OutputStream out;
+    private final byte[] buffer = new byte[8];
+    private byte[] transferBuffer;
 
     /**
      * @param out The output stream to wrap.
@@ -28,6 +30,37 @@ public class ScratchOutputStream extends OutputStream
         out.write(b);
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        out.write(b, off, len);
+    }
+
+    /**
+     * Writes out the remaining bytes of the given buffer. The buffer's
+     * position is not changed.
+     *
+     * @param b The buffer to write.
+     * @throws IOException
+     */
+    public void write(ByteBuffer b) throws IOException
+    {
+        if (b.hasArray()) {
+            out.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+            return;
+        }
+
+        if (transferBuffer == null) {
+            transferBuffer = new byte[8192];
+        }
+        ByteBuffer src = b.duplicate();
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), transferBuffer.length);
+            src.get(transferBuffer, 0, n);
+            out.write(transferBuffer, 0, n);
+        }
+    }
+
     @Override
     public void flush() throws IOException
     {
@@ -61,7 +94,11 @@ public class ScratchOutputStream extends OutputStream
      */
     public void write32bitUnsignedInt(int i) throws IOException
     {
-        write(ByteBuffer.allocate(4).putInt(i).array());
+        buffer[0] = (byte) (i >>> 24);
+        buffer[1] = (byte) (i >>> 16);
+        buffer[2] = (byte) (i >>> 8);
+        buffer[3] = (byte) i;
+        out.write(buffer, 0, 4);
     }
 
     /**
@@ -73,7 +110,10 @@ public class ScratchOutputStream extends OutputStream
      */
     public void write24bitUnsignedInt(int i) throws IOException
     {
-        write(ByteBuffer.allocate(4).putInt(i).array(), 1, 3);
+        buffer[0] = (byte) (i >>> 16);
+        buffer[1] = (byte) (i >>> 8);
+        buffer[2] = (byte) i;
+        out.write(buffer, 0, 3);
     }
 
     /**
@@ -86,7 +126,9 @@ public class ScratchOutputStream extends OutputStream
      */
     public void write16bitUnsignedInt(int i) throws IOException
     {
-        write(ByteBuffer.allocate(4).putInt(i).array(), 2, 2);
+        buffer[0] = (byte) (i >>> 8);
+        buffer[1] = (byte) i;
+        out.write(buffer, 0, 2);
     }
 
     /**
@@ -97,6 +139,10 @@ public class ScratchOutputStream extends OutputStream
      */
     public void write64bitDecimal(double d) throws IOException
     {
-        write(ByteBuffer.allocate(8).putDouble(d).array());
+        long l = Double.doubleToLongBits(d);
+        for (int i = 0; i < 8; ++i) {
+            buffer[i] = (byte) (l >>> (56 - 8 * i));
+        }
+        out.write(buffer, 0, 8);
     }
 }
@@ -1,8 +1,15 @@
 package scratchlib.writer;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.UUID;
 
 import scratchlib.project.ScratchProject;
 
@@ -13,6 +20,8 @@ import scratchlib.project.ScratchProject;
 public class ScratchWriter
 {
     private final File file;
+    private boolean atomic;
+    private boolean sync;
 
     /**
      * @param dest The file to write to.
@@ -22,6 +31,62 @@ public class ScratchWriter
         this.file = dest;
     }
 
+    /**
+     * @return Whether the file is replaced atomically.
+     *
+     * @see #setAtomic(boolean)
+     */
+    public boolean isAtomic()
+    {
+        return atomic;
+    }
+
+    /**
+     * Sets whether the file shall be replaced atomically. The default is false.
+     *
+     * <p>
+     * When enabled, the project is written to a temporary file next to the
+     * destination, which is then moved over the destination in one atomic
+     * step. Readers thus see either the old or the new file, and a crash while
+     * saving never leaves a truncated file behind. This also makes it safe to
+     * write over a file that projects in use were lazily read from. The
+     * permissions, owner and group of an existing file are carried over, as
+     * far as the platform and privileges allow.
+     *
+     * <p>
+     * A project lazily read from the destination itself (see
+     * {@link ScratchProject#getMappedFile()}) is always written atomically,
+     * since truncating the file would invalidate its payloads.
+     *
+     * @param atomic Whether to replace the file atomically.
+     */
+    public void setAtomic(boolean atomic)
+    {
+        this.atomic = atomic;
+    }
+
+    /**
+     * @return Whether written data is forced to the storage device.
+     *
+     * @see #setSync(boolean)
+     */
+    public boolean isSync()
+    {
+        return sync;
+    }
+
+    /**
+     * Sets whether written data shall be forced to the storage device before
+     * {@link #write(ScratchProject)} returns (or, in atomic mode, before the
+     * file is replaced). The default is false.
+     *
+     * @param sync Whether to force data to the storage device.
+     */
+    public void setSync(boolean sync)
+    {
+        this.sync = sync;
+    }
+
     /**
      * Writes the given {@link ScratchProject} to the file.
      *
@@ -30,8 +95,101 @@ public class ScratchWriter
      */
     public void write(ScratchProject project) throws IOException
     {
-        ScratchOutputStream out = new ScratchOutputStream(new FileOutputStream(file));
-        project.writeTo(out);
-        out.close();
+        Path dest = file.toPath();
+
+        if (!atomic && !isMappedFrom(project, dest)) {
+            writeTo(dest, project, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            return;
+        }
+
+        Path dir = dest.toAbsolutePath().getParent();
+        Path temp = dir.resolve("." + dest.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            writeTo(temp, project, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+            copyAttributes(dest, temp);
+            Files.move(temp, dest, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        if (sync) {
+            syncDirectory(dir);
+        }
+    }
+
+    /**
+     * @param project The project to write.
+     * @param dest The destination.
+     * @return Whether the project's payloads are mapped from the destination.
+     * @throws IOException
+     */
+    private static boolean isMappedFrom(ScratchProject project, Path dest) throws IOException
+    {
+        Path mapped = project.getMappedFile();
+        return mapped != null && Files.exists(mapped) && Files.exists(dest) && Files.isSameFile(mapped, dest);
+    }
+
+    /**
+     * Copies the POSIX permissions, owner and group of an existing file to
+     * another file. Nothing is done if the source does not exist or the
+     * platform has no POSIX attributes. Changing ownership usually requires
+     * privileges; if it fails, the target keeps the current user's.
+     *
+     * @param source The file to copy from.
+     * @param target The file to copy to.
+     * @throws IOException If reading the attributes or setting the
+     *             permissions fails.
+     */
+    private static void copyAttributes(Path source, Path target) throws IOException
+    {
+        PosixFileAttributeView sourceView = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+        PosixFileAttributeView targetView = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (sourceView == null || targetView == null || !Files.exists(source)) {
+            return;
+        }
+
+        PosixFileAttributes attributes = sourceView.readAttributes();
+        targetView.setPermissions(attributes.permissions());
+        try {
+            targetView.setGroup(attributes.group());
+            targetView.setOwner(attributes.owner());
+        } catch (IOException e) {
+            // not permitted; keep the current user's ownership
+        }
+    }
+
+    /**
+     * Writes the given project to the given path through a file channel,
+     * forcing the data to disk if requested.
+     *
+     * @param path The path to write to.
+     * @param project The project to write.
+     * @param options The options to open the file with.
+     * @throws IOException
+     */
+    private void writeTo(Path path, ScratchProject project, StandardOpenOption... options) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            project.writeTo(channel);
+            if (sync) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Forces the given directory's entries (e.g. a rename) to disk. Not all
+     * platforms allow opening directories, in which case nothing is done.
+     *
+     * @param dir The directory to sync.
+     */
+    private static void syncDirectory(Path dir)
+    {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // unsupported on this platform; the file itself has been forced
+        }
     }
 }
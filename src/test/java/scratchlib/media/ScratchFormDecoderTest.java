@@ -0,0 +1,152 @@
+package scratchlib.media;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
+import scratchlib.objects.fixed.colors.ScratchObjectColor;
+import scratchlib.objects.fixed.colors.ScratchObjectTranslucentColor;
+import scratchlib.objects.fixed.data.ScratchObjectByteArray;
+import scratchlib.objects.fixed.forms.ScratchObjectColorForm;
+import scratchlib.objects.fixed.forms.ScratchObjectForm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ScratchFormDecoderTest
+{
+    @Test
+    public void decodesRuns()
+    {
+        byte[] bytes = {
+                9, // 9 words
+                2 << 2 | 0, // 2 zero words
+                2 << 2 | 1, 0x12, // 2 words of 0x12121212
+                1 << 2 | 2, 1, 2, 3, 4, // 1 word 0x01020304
+                4 << 2 | 3, 0, 0, 0, 1, 0, 0, 0, 2, 0, 0, 0, 3, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        };
+
+        assertArrayEquals(new int[] { 0, 0, 0x12121212, 0x12121212, 0x01020304, 1, 2, 3, -1 },
+                ScratchFormDecoder.decodeRaw(bytes));
+    }
+
+    @Test
+    public void decodesLongCounts()
+    {
+        int[] words = new int[300];
+        Arrays.fill(words, 7);
+
+        assertArrayEquals(words, ScratchFormDecoder.decodeRaw(ScratchFormEncoder.encodeRaw(words)));
+    }
+
+    @Test
+    public void rejectsMalformedData()
+    {
+        assertThrows(IllegalArgumentException.class, () -> ScratchFormDecoder.decodeRaw(new byte[] { 2, 3 << 2 | 2 }));
+        assertThrows(IllegalArgumentException.class,
+                () -> ScratchFormDecoder.decodeRaw(new byte[] { 2, 2 << 2 | 3, 0, 0 }));
+    }
+
+    @Test
+    public void rejectsWordCountsNotCoveredByData()
+    {
+        // 2^31 - 1 words announced, one run of 2 zero words present
+        assertThrows(IllegalArgumentException.class, () -> ScratchFormDecoder
+                .decodeRaw(new byte[] { (byte) 255, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 2 << 2 }));
+        assertThrows(IllegalArgumentException.class, () -> ScratchFormDecoder
+                .decodeRaw(new byte[] { (byte) 255, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF }));
+    }
+
+    @Test
+    public void decodes32BitForms()
+    {
+        BufferedImage img = new BufferedImage(3, 2, BufferedImage.TYPE_INT_ARGB);
+        int[] argb = { 0xFF112233, 0, 0x80FFFFFF, 0xFF000000, 0xFFABCDEF, 0x01020304 };
+        img.setRGB(0, 0, 3, 2, argb, 0, 3);
+
+        ScratchObjectForm form = ScratchFormEncoder.encode(img);
+
+        assertArrayEquals(argb, ScratchFormDecoder.decodePixels(form, null));
+
+        BufferedImage decoded = ScratchFormDecoder.decode(form);
+        assertEquals(3, decoded.getWidth());
+        assertEquals(2, decoded.getHeight());
+        assertArrayEquals(argb, decoded.getRGB(0, 0, 3, 2, null, 0, 3));
+    }
+
+    @Test
+    public void reusesPixelArray()
+    {
+        ScratchObjectForm form = createForm(2, 1, 32, 5, 6);
+
+        int[] pixels = new int[10];
+        assertSame(pixels, ScratchFormDecoder.decodePixels(form, pixels));
+        assertEquals(5, pixels[0]);
+        assertEquals(6, pixels[1]);
+
+        assertEquals(2, ScratchFormDecoder.decodePixels(form, new int[1]).length);
+    }
+
+    @Test
+    public void decodes16BitForms()
+    {
+        // 3x1 pixels in 2 words: red, transparent, white, padding
+        ScratchObjectForm form = createForm(3, 1, 16, 0x7C00 << 16, 0x7FFF << 16);
+
+        assertArrayEquals(new int[] { 0xFFFF0000, 0, 0xFFFFFFFF }, ScratchFormDecoder.decodePixels(form, null));
+    }
+
+    @Test
+    public void decodesIndexedForms()
+    {
+        // 1 bit: 0 is transparent, 1 is black; rows are padded to words
+        ScratchObjectForm form1 = createForm(3, 2, 1, 0b101 << 29, 0b010 << 29);
+        assertArrayEquals(new int[] { 0xFF000000, 0, 0xFF000000, 0, 0xFF000000, 0 },
+                ScratchFormDecoder.decodePixels(form1, null));
+
+        // 2 bits: transparent, black, white, gray
+        ScratchObjectForm form2 = createForm(4, 1, 2, 0b00011011 << 24);
+        assertArrayEquals(new int[] { 0, 0xFF000000, 0xFFFFFFFF, 0xFF808080 },
+                ScratchFormDecoder.decodePixels(form2, null));
+
+        // 4 bits: red, green, blue
+        ScratchObjectForm form4 = createForm(3, 1, 4, 0x456 << 20);
+        assertArrayEquals(new int[] { 0xFFFF0000, 0xFF00FF00, 0xFF0000FF },
+                ScratchFormDecoder.decodePixels(form4, null));
+
+        // 8 bits: color cube (r = 5, g = 0, b = 0), and the brightest cube entry
+        ScratchObjectForm form8 = createForm(2, 1, 8, (40 + 180) << 24 | 255 << 16);
+        assertArrayEquals(new int[] { 0xFFFF0000, 0xFFFFFFFF }, ScratchFormDecoder.decodePixels(form8, null));
+    }
+
+    @Test
+    public void decodesColorForms()
+    {
+        ScratchObjectArray colorMap = new ScratchObjectArray(Arrays.asList(
+                new ScratchObjectTranslucentColor(0, 0, 0, 0),
+                new ScratchObjectColor(1023, 0, 0),
+                new ScratchObjectTranslucentColor(0, 1023, 0, 128)));
+        int[] words = { 0x01020300 };
+        ScratchObjectColorForm form = new ScratchObjectColorForm(4, 1, 8,
+                new ScratchObjectByteArray(ScratchFormEncoder.encodeRaw(words)), colorMap);
+
+        // index 3 is not in the color map
+        assertArrayEquals(new int[] { 0xFFFF0000, 0x8000FF00, 0, 0 }, ScratchFormDecoder.decodePixels(form, null));
+        assertEquals(4, ScratchFormDecoder.decode(form).getWidth());
+    }
+
+    @Test
+    public void rejectsMismatchingForms()
+    {
+        assertThrows(IllegalArgumentException.class,
+                () -> ScratchFormDecoder.decodePixels(createForm(3, 1, 32, 1, 2), null));
+        assertThrows(IllegalArgumentException.class,
+                () -> ScratchFormDecoder.decodePixels(createForm(1, 1, 3, 1), null));
+    }
+
+    private static ScratchObjectForm createForm(int width, int height, int depth, int... words)
+    {
+        return new ScratchObjectForm(width, height, depth, new ScratchObjectByteArray(ScratchFormEncoder.encodeRaw(words)));
+    }
+}
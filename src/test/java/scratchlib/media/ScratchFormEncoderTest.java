@@ -0,0 +1,195 @@
+package scratchlib.media;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import scratchlib.objects.fixed.colors.ScratchObjectColor;
+import scratchlib.objects.fixed.colors.ScratchObjectTranslucentColor;
+import scratchlib.objects.fixed.forms.ScratchObjectColorForm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ScratchFormEncoderTest
+{
+    @Test
+    public void encodesRuns()
+    {
+        int[] words = { 0, 0, 0, 0x01020304, 0x01020304, 5, 6, 0x7F7F7F7F, 7 };
+
+        byte[] expected = {
+                9, // 9 words
+                3 << 2 | 1, 0, // 3 words of repeated byte 0
+                2 << 2 | 2, 1, 2, 3, 4, // 2 words 0x01020304
+                2 << 2 | 3, 0, 0, 0, 5, 0, 0, 0, 6, // 2 literal words
+                1 << 2 | 1, 0x7F, // 1 word of repeated byte 0x7F
+                1 << 2 | 3, 0, 0, 0, 7, // 1 literal word
+        };
+
+        assertArrayEquals(expected, ScratchFormEncoder.encodeRaw(words));
+    }
+
+    @Test
+    public void encodesEmptyArrays()
+    {
+        assertArrayEquals(new byte[] { 0 }, ScratchFormEncoder.encodeRaw(new int[0]));
+    }
+
+    @Test
+    public void compressesTransparentAreas()
+    {
+        int[] words = new int[100_000];
+        words[500] = 0xFF123456;
+
+        byte[] bytes = ScratchFormEncoder.encodeRaw(words);
+
+        assertTrue(bytes.length < 20);
+        assertArrayEquals(words, ScratchFormDecoder.decodeRaw(bytes));
+    }
+
+    @Test
+    public void roundTripsRandomData()
+    {
+        Random random = new Random(42);
+        for (int n = 0; n < 200; ++n) {
+            int[] words = new int[random.nextInt(3000)];
+            for (int i = 0; i < words.length; ++i) {
+                // few distinct values to produce runs of all kinds
+                switch (random.nextInt(4)) {
+                    case 0:
+                        words[i] = 0;
+                        break;
+                    case 1:
+                        words[i] = i > 0 ? words[i - 1] : 1;
+                        break;
+                    case 2:
+                        words[i] = random.nextInt(3) * 0x01010101;
+                        break;
+                    default:
+                        words[i] = random.nextInt();
+                        break;
+                }
+            }
+
+            byte[] bytes = ScratchFormEncoder.encodeRaw(words);
+            assertTrue(bytes.length <= 5 + 4 * words.length + words.length);
+            assertArrayEquals(words, ScratchFormDecoder.decodeRaw(bytes), Arrays.toString(words));
+        }
+    }
+
+    @Test
+    public void encodesColorForms()
+    {
+        int[] colors = { 0, 0xFF102030, 0x80FFFFFF, 0xFF000000 };
+        Random random = new Random(42);
+        int[] pixels = new int[33 * 7];
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = colors[random.nextInt(colors.length)];
+        }
+
+        ScratchObjectColorForm form = ScratchFormEncoder.encodeColorForm(pixels, 33, 7, false);
+
+        assertEquals(2, form.getDepth().intValue());
+        assertEquals(4, form.getColorMap().size());
+        assertEquals(0, ((ScratchObjectTranslucentColor) form.getColorMap().get(0)).getAlpha());
+        int opaque = 0;
+        for (int i = 0; i < 4; ++i) {
+            if (form.getColorMap().get(i) instanceof ScratchObjectColor) {
+                ++opaque;
+            }
+        }
+        assertEquals(2, opaque);
+        assertArrayEquals(pixels, ScratchFormDecoder.decodePixels(form, null));
+    }
+
+    @Test
+    public void choosesSmallestDepth()
+    {
+        int[] expected = { 1, 1, 2, 2, 4, 4, 8, 8 };
+        int[] counts = { 1, 2, 3, 4, 5, 16, 17, 256 };
+        for (int n = 0; n < counts.length; ++n) {
+            int[] pixels = new int[300];
+            for (int i = 0; i < pixels.length; ++i) {
+                pixels[i] = 0xFF000000 | (i % counts[n]) * 0x010101;
+            }
+
+            ScratchObjectColorForm form = ScratchFormEncoder.encodeColorForm(pixels, 20, 15, false);
+
+            assertEquals(expected[n], form.getDepth().intValue());
+            assertArrayEquals(pixels, ScratchFormDecoder.decodePixels(form, null));
+        }
+    }
+
+    @Test
+    public void treatsTransparentPixelsAsOneColor()
+    {
+        int[] pixels = { 0x00FF0000, 0x0000FF00, 0, 0xFF0000FF };
+
+        ScratchObjectColorForm form = ScratchFormEncoder.encodeColorForm(pixels, 2, 2, false);
+
+        assertEquals(1, form.getDepth().intValue());
+        assertArrayEquals(new int[] { 0, 0, 0, 0xFF0000FF }, ScratchFormDecoder.decodePixels(form, null));
+    }
+
+    @Test
+    public void rejectsTooManyColors()
+    {
+        int[] pixels = new int[257];
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = 0xFF000000 | i;
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> ScratchFormEncoder.encodeColorForm(pixels, 257, 1, false));
+        assertThrows(IllegalArgumentException.class, () -> ScratchFormEncoder.encodeColorForm(pixels, 2, 2, true));
+    }
+
+    @Test
+    public void quantizesColors()
+    {
+        int width = 120, height = 90;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                pixels[y * width + x] = x < 10 ? 0 : 0xFF000000 | (x * 2) << 16 | (y * 2) << 8 | (x + y);
+            }
+        }
+
+        ScratchObjectColorForm form = ScratchFormEncoder.encodeColorForm(pixels, width, height, true);
+
+        assertEquals(8, form.getDepth().intValue());
+        assertTrue(form.getColorMap().size() <= 256);
+
+        int[] decoded = ScratchFormDecoder.decodePixels(form, null);
+        long error = 0;
+        for (int i = 0; i < pixels.length; ++i) {
+            if (pixels[i] == 0) {
+                assertEquals(0, decoded[i]);
+                continue;
+            }
+            for (int shift = 0; shift < 32; shift += 8) {
+                error += Math.abs(((pixels[i] >>> shift) & 0xFF) - ((decoded[i] >>> shift) & 0xFF));
+            }
+        }
+        assertTrue(error / (double) pixels.length < 12, "mean error " + error / (double) pixels.length);
+    }
+
+    @Test
+    public void encodesLargeImages()
+    {
+        // large enough to be split into bands
+        int width = 480, height = 360;
+        int[] pixels = new int[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = i % width < 100 ? 0 : random.nextInt(3) == 0 ? pixels[i - 1] : random.nextInt();
+        }
+
+        int[] words = ScratchFormDecoder.decodeRaw(ScratchFormEncoder.encodeRaw(pixels));
+        assertArrayEquals(pixels, words);
+
+        assertArrayEquals(pixels, ScratchFormDecoder.decodePixels(
+                ScratchFormEncoder.encode(pixels, 0, width, height, width), null));
+    }
+}
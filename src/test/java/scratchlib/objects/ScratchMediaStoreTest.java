@@ -0,0 +1,142 @@
+package scratchlib.objects;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
+import scratchlib.objects.fixed.data.ScratchObjectByteArray;
+import scratchlib.objects.fixed.data.ScratchObjectSoundBuffer;
+import scratchlib.objects.fixed.forms.ScratchObjectForm;
+import scratchlib.objects.user.media.ScratchObjectImageMedia;
+import scratchlib.project.ScratchProject;
+import scratchlib.project.ScratchVersion;
+import scratchlib.reader.ScratchByteBufferInputStream;
+import scratchlib.writer.ScratchOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ScratchMediaStoreTest
+{
+    private static ScratchObjectImageMedia createCostume(byte[] pixels)
+    {
+        ScratchObjectImageMedia media = new ScratchObjectImageMedia();
+        media.setField(ScratchObjectImageMedia.FIELD_FORM,
+                new ScratchObjectForm(2, 2, 8, new ScratchObjectByteArray(pixels)));
+        return media;
+    }
+
+    private static int encodedSize(ScratchObjectStore store, ScratchProject project) throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        store.writeTo(new ScratchOutputStream(bout), project);
+        return bout.size();
+    }
+
+    @Test
+    public void internsByTypeAndContents()
+    {
+        ScratchMediaStore obj = new ScratchMediaStore();
+
+        ScratchObjectByteArray a = new ScratchObjectByteArray(new byte[] { 1, 2, 3, 4 });
+        ScratchObjectByteArray b = new ScratchObjectByteArray(new byte[] { 1, 2, 3, 4 });
+        ScratchObjectByteArray c = new ScratchObjectByteArray(new byte[] { 1, 2, 3, 5 });
+        ScratchObjectSoundBuffer d = new ScratchObjectSoundBuffer(new byte[] { 1, 2, 3, 4 });
+
+        assertSame(a, obj.intern(a));
+        assertSame(a, obj.intern(b));
+        assertSame(c, obj.intern(c));
+        assertSame(d, obj.intern(d));
+        assertEquals(3, obj.size());
+
+        obj.clear();
+        assertEquals(0, obj.size());
+        assertSame(b, obj.intern(b));
+    }
+
+    @Test
+    public void keepsLazyPayloadsClean() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectArray root = new ScratchObjectArray(Arrays.asList(
+                new ScratchObjectByteArray(new byte[] { 1, 2, 3 }), new ScratchObjectByteArray(new byte[] { 1, 2, 3 })));
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ScratchObjectStore(root).writeTo(new ScratchOutputStream(bout), project);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bout.size());
+        buffer.put(bout.toByteArray()).flip();
+        ScratchByteBufferInputStream in = new ScratchByteBufferInputStream(buffer);
+        in.setRetainRecords(true);
+        ScratchObjectStore store = ScratchObjectStore.readFrom(in, project);
+
+        ScratchMediaStore obj = new ScratchMediaStore();
+        assertEquals(1, obj.deduplicate(store, project));
+
+        ScratchObjectArray readRoot = (ScratchObjectArray) store.get();
+        ScratchObjectByteArray shared = (ScratchObjectByteArray) readRoot.get(0);
+        assertSame(shared, readRoot.get(1));
+        assertTrue(shared.getBuffer().isDirect());
+        assertFalse(shared.isDirty());
+    }
+
+    @Test
+    public void deduplicatesStoreRoots()
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchMediaStore obj = new ScratchMediaStore();
+        ScratchObjectByteArray shared = obj.intern(new ScratchObjectByteArray(new byte[] { 4, 5 }));
+
+        ScratchObjectStore store = new ScratchObjectStore(new ScratchObjectByteArray(new byte[] { 4, 5 }));
+        assertEquals(1, obj.deduplicate(store, project));
+        assertSame(shared, store.get());
+    }
+
+    @Test
+    public void deduplicatesStores() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        byte[] pixels = new byte[1000];
+        Arrays.fill(pixels, (byte) 7);
+        ScratchObjectImageMedia first = createCostume(pixels.clone());
+        ScratchObjectImageMedia second = createCostume(pixels.clone());
+        ScratchObjectStore store = new ScratchObjectStore(new ScratchObjectArray(Arrays.asList(first, second)));
+
+        int before = encodedSize(store, project);
+
+        ScratchMediaStore obj = new ScratchMediaStore();
+        assertEquals(1, obj.deduplicate(store, project));
+
+        ScratchObjectForm firstForm = (ScratchObjectForm) first.getField(ScratchObjectImageMedia.FIELD_FORM);
+        ScratchObjectForm secondForm = (ScratchObjectForm) second.getField(ScratchObjectImageMedia.FIELD_FORM);
+        assertSame(firstForm.getBits(), secondForm.getBits());
+        assertTrue(encodedSize(store, project) <= before - pixels.length);
+
+        // nothing left to do
+        assertEquals(0, obj.deduplicate(store, project));
+    }
+
+    @Test
+    public void deduplicatesAcrossProjects()
+    {
+        ScratchProject a = new ScratchProject(ScratchVersion.SCRATCH14);
+        ScratchProject b = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectImageMedia costumeA = createCostume(new byte[] { 9, 9, 9, 9 });
+        ScratchObjectImageMedia costumeB = createCostume(new byte[] { 9, 9, 9, 9 });
+        a.setStageSection(new ScratchObjectStore(costumeA));
+        b.setStageSection(new ScratchObjectStore(costumeB));
+
+        ScratchMediaStore obj = new ScratchMediaStore();
+        assertEquals(0, obj.deduplicate(a));
+        assertEquals(1, obj.deduplicate(b));
+
+        assertSame(((ScratchObjectForm) costumeA.getField(ScratchObjectImageMedia.FIELD_FORM)).getBits(),
+                ((ScratchObjectForm) costumeB.getField(ScratchObjectImageMedia.FIELD_FORM)).getBits());
+    }
+}
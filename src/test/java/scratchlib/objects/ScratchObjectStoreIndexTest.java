@@ -0,0 +1,199 @@
+package scratchlib.objects;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
+import scratchlib.objects.fixed.data.ScratchObjectUtf8;
+import scratchlib.objects.inline.ScratchObjectSmallInteger;
+import scratchlib.project.ScratchProject;
+import scratchlib.project.ScratchVersion;
+import scratchlib.reader.ScratchByteBufferInputStream;
+import scratchlib.reader.ScratchInputStream;
+import scratchlib.writer.ScratchOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ScratchObjectStoreIndexTest
+{
+    private static final ScratchProject PROJECT = new ScratchProject(ScratchVersion.SCRATCH14);
+
+    private static byte[] encode(ScratchObject root) throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ScratchObjectStore(root).writeTo(new ScratchOutputStream(bout), PROJECT);
+        return bout.toByteArray();
+    }
+
+    private static ScratchObjectArray createGraph()
+    {
+        // root -> [a -> ["x", 7], b -> ["y", a]]
+        ScratchObjectArray a = new ScratchObjectArray(Arrays.asList(new ScratchObjectUtf8("x"),
+                new ScratchObjectSmallInteger(7)));
+        ScratchObjectArray b = new ScratchObjectArray(Arrays.asList(new ScratchObjectUtf8("y"), a));
+        return new ScratchObjectArray(Arrays.asList(a, b));
+    }
+
+    @Test
+    public void indexesRecords() throws IOException
+    {
+        byte[] bytes = encode(createGraph());
+        ScratchByteBufferInputStream in = new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes));
+
+        ScratchObjectStoreIndex index = ScratchObjectStoreIndex.build(in, PROJECT);
+        assertEquals(bytes.length, in.getPosition());
+
+        // records: 1 root, 2 a, 3 "x", 4 b, 5 "y"
+        assertEquals(5, index.size());
+        assertEquals(14, index.getOffset(1));
+        assertEquals(bytes.length, index.getOffset(5) + index.getLength(5));
+        for (int id = 1; id < 5; ++id) {
+            assertEquals(index.getOffset(id + 1), index.getOffset(id) + index.getLength(id));
+        }
+
+        assertEquals(20, index.getClassID(1));
+        assertEquals(14, index.getClassID(3));
+
+        assertArrayEquals(new int[] { 2, 4 }, index.getReferences(1));
+        assertArrayEquals(new int[] { 3 }, index.getReferences(2));
+        assertArrayEquals(new int[] { 5, 2 }, index.getReferences(4));
+        assertArrayEquals(new int[0], index.getReferences(5));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> index.getOffset(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> index.getOffset(6));
+    }
+
+    @Test
+    public void decodesReachableSubgraph() throws IOException
+    {
+        byte[] bytes = encode(createGraph());
+        ScratchObjectStoreIndex index = ScratchObjectStoreIndex
+                .build(new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes)), PROJECT);
+
+        ScratchObjectArray b = (ScratchObjectArray) index.decode(ByteBuffer.wrap(bytes), 4, PROJECT);
+        assertEquals(2, b.size());
+        assertEquals("y", ((ScratchObjectUtf8) b.get(0)).getValue());
+
+        ScratchObjectArray a = (ScratchObjectArray) b.get(1);
+        assertEquals("x", ((ScratchObjectUtf8) a.get(0)).getValue());
+        assertEquals(7, ((ScratchObjectSmallInteger) a.get(1)).intValue());
+    }
+
+    @Test
+    public void decodesFromFiles(@TempDir Path dir) throws IOException
+    {
+        byte[] bytes = encode(createGraph());
+        ScratchObjectStoreIndex index = ScratchObjectStoreIndex
+                .build(new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes)), PROJECT);
+
+        Path file = dir.resolve("store.bin");
+        Files.write(file, bytes);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ScratchObjectArray a = (ScratchObjectArray) index.decode(channel, 2, PROJECT);
+            assertEquals("x", ((ScratchObjectUtf8) a.get(0)).getValue());
+            assertEquals(7, ((ScratchObjectSmallInteger) a.get(1)).intValue());
+        }
+    }
+
+    @Test
+    public void rejectsMismatchingSources() throws IOException
+    {
+        byte[] bytes = encode(createGraph());
+        ScratchObjectStoreIndex index = ScratchObjectStoreIndex
+                .build(new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes)), PROJECT);
+        assertEquals(bytes.length, index.getSourceLength());
+
+        byte[] longer = Arrays.copyOf(bytes, bytes.length + 1);
+        assertThrows(IOException.class, () -> index.decode(ByteBuffer.wrap(longer), 1, PROJECT));
+
+        byte[] changed = bytes.clone();
+        changed[index.getOffset(3)] = 10;
+        assertThrows(IOException.class, () -> index.decode(ByteBuffer.wrap(changed), 2, PROJECT));
+    }
+
+    @Test
+    public void rejectsSameLengthEdits(@TempDir Path dir) throws IOException
+    {
+        byte[] bytes = encode(createGraph());
+        ScratchObjectStoreIndex index = ScratchObjectStoreIndex
+                .build(new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes)), PROJECT);
+
+        // "x" -> "z", keeping class ID and length of every record
+        byte[] changed = bytes.clone();
+        changed[index.getOffset(3) + index.getLength(3) - 1] = 'z';
+        assertThrows(IOException.class, () -> index.decode(ByteBuffer.wrap(changed), 2, PROJECT));
+
+        Path file = dir.resolve("store.bin");
+        Files.write(file, changed);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertThrows(IOException.class, () -> index.decode(channel, 2, PROJECT));
+            // records not reaching the edited one are still fine
+            assertEquals("y", ((ScratchObjectUtf8) index.decode(channel, 5, PROJECT)).getValue());
+        }
+    }
+
+    @Test
+    public void roundTrips() throws IOException
+    {
+        byte[] bytes = encode(createGraph());
+        ScratchObjectStoreIndex index = ScratchObjectStoreIndex
+                .build(new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes)), PROJECT);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        index.writeTo(new ScratchOutputStream(bout));
+
+        ScratchObjectStoreIndex read = ScratchObjectStoreIndex
+                .readFrom(new ScratchInputStream(new ByteArrayInputStream(bout.toByteArray())));
+
+        assertEquals(index.size(), read.size());
+        assertEquals(index.getSourceLength(), read.getSourceLength());
+        for (int id = 1; id <= index.size(); ++id) {
+            assertEquals(index.getOffset(id), read.getOffset(id));
+            assertEquals(index.getLength(id), read.getLength(id));
+            assertEquals(index.getClassID(id), read.getClassID(id));
+            assertEquals(index.getChecksum(id), read.getChecksum(id));
+            assertArrayEquals(index.getReferences(id), read.getReferences(id));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidHeader()
+    {
+        byte[] bytes = new byte[14];
+        assertThrows(IOException.class,
+                () -> ScratchObjectStoreIndex.readFrom(new ScratchInputStream(new ByteArrayInputStream(bytes))));
+    }
+
+    @Test
+    public void rejectsOversizedCounts() throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ScratchOutputStream out = new ScratchOutputStream(bout);
+        out.writeString(ScratchObjectStoreIndex.HEADER);
+        out.write32bitUnsignedInt(Integer.MAX_VALUE);
+        out.write32bitUnsignedInt(100);
+        out.write32bitUnsignedInt(14);
+        byte[] bytes = bout.toByteArray();
+
+        assertThrows(IOException.class,
+                () -> ScratchObjectStoreIndex.readFrom(new ScratchInputStream(new ByteArrayInputStream(bytes))));
+        assertThrows(IOException.class,
+                () -> ScratchObjectStoreIndex.readFrom(new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes))));
+
+        // negative count
+        bytes[10] = (byte) 0xFF;
+        assertThrows(IOException.class,
+                () -> ScratchObjectStoreIndex.readFrom(new ScratchInputStream(new ByteArrayInputStream(bytes))));
+    }
+}
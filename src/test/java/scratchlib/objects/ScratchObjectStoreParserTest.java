@@ -0,0 +1,139 @@
+package scratchlib.objects;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import scratchlib.project.ScratchProject;
+import scratchlib.project.ScratchVersion;
+import scratchlib.reader.ScratchInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ScratchObjectStoreParserTest
+{
+    private static class RecordingVisitor implements IScratchObjectStoreVisitor
+    {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void visitStore(int size)
+        {
+            events.add("store " + size);
+        }
+
+        @Override
+        public void visitObjectStart(int referenceID, int classID)
+        {
+            events.add("start " + referenceID + " " + classID);
+        }
+
+        @Override
+        public void visitReference(int referenceID)
+        {
+            events.add("ref " + referenceID);
+        }
+
+        @Override
+        public void visitInline(ScratchObject value)
+        {
+            events.add("inline " + value.getClassID());
+        }
+
+        @Override
+        public void visitData(ByteBuffer data)
+        {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            events.add("data " + new String(bytes, StandardCharsets.US_ASCII));
+        }
+
+        @Override
+        public void visitObjectEnd(int referenceID, int classID)
+        {
+            events.add("end " + referenceID + " " + classID);
+        }
+
+        @Override
+        public void visitStoreEnd()
+        {
+            events.add("store end");
+        }
+    }
+
+    @Test
+    public void throwsWhenReadingIncorrectHeader()
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ByteArrayInputStream bin = new ByteArrayInputStream("ObjS\1Stttt".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IOException.class, () -> {
+            ScratchObjectStoreParser.parse(new ScratchInputStream(bin), project, new RecordingVisitor());
+        });
+    }
+
+    @Test
+    public void reportsEvents() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ByteArrayInputStream bin = new ByteArrayInputStream(new byte[] {
+                // header
+                'O', 'b', 'j', 'S', 1, 'S', 't', 'c', 'h', 1,
+                // size
+                0, 0, 0, 3,
+                // array with 3 items
+                20, 0, 0, 0, 3,
+                // first item: reference
+                99, 0, 0, 2,
+                // second item: nil
+                1,
+                // third item: point (nested)
+                32, 4, 0, 0, 0, 1, 4, 0, 0, 0, 2,
+                // first reference: string "ab"
+                9, 0, 0, 0, 2, 'a', 'b',
+                // orphan: small integer
+                4, 0, 0, 0, 7,
+                // end
+        });
+
+        RecordingVisitor visitor = new RecordingVisitor();
+        ScratchObjectStoreParser.parse(new ScratchInputStream(bin), project, visitor);
+
+        assertEquals(Arrays.asList(
+                "store 3",
+                "start 1 20", "ref 2", "inline 1",
+                "start 0 32", "inline 4", "inline 4", "end 0 32",
+                "end 1 20",
+                "start 2 9", "data ab", "end 2 9",
+                "start 3 4", "inline 4", "end 3 4",
+                "store end"), visitor.events);
+    }
+
+    @Test
+    public void throwsForOversizedData()
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ByteArrayInputStream bin = new ByteArrayInputStream(new byte[] {
+                // header
+                'O', 'b', 'j', 'S', 1, 'S', 't', 'c', 'h', 1,
+                // size
+                0, 0, 0, 1,
+                // bitmap claiming 2^31 - 1 words, i.e. almost 8 GiB
+                13, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        });
+
+        IOException e = assertThrows(IOException.class, () -> {
+            ScratchObjectStoreParser.parse(new ScratchInputStream(bin), project, new RecordingVisitor());
+        });
+        assertTrue(e.getMessage().startsWith("record too large"));
+    }
+}
@@ -3,16 +3,30 @@ package scratchlib.objects;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.jupiter.api.Test;
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
+import scratchlib.objects.fixed.collections.ScratchObjectDictionary;
+import scratchlib.objects.fixed.colors.ScratchObjectColor;
+import scratchlib.objects.fixed.data.ScratchObjectByteArray;
 import scratchlib.objects.fixed.data.ScratchObjectString;
+import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 import scratchlib.objects.fixed.data.ScratchObjectUtf8;
+import scratchlib.objects.fixed.dimensions.ScratchObjectPoint;
+import scratchlib.objects.inline.ScratchObjectLargePositiveInteger;
 import scratchlib.objects.inline.ScratchObjectBoolean;
 import scratchlib.project.ScratchProject;
 import scratchlib.project.ScratchVersion;
+import scratchlib.reader.ScratchByteBufferInputStream;
 import scratchlib.reader.ScratchInputStream;
 import scratchlib.writer.ScratchOutputStream;
 
@@ -21,6 +35,40 @@ import static org.junit.jupiter.api.Assertions.*;
 
 public class ScratchObjectStoreTest
 {
+    /**
+     * Encodes like a single-element array, but reports its field only through
+     * an override of createReferences.
+     */
+    private static class LegacyHolder extends ScratchObject implements IScratchReferenceType
+    {
+        private final ScratchObject field;
+
+        public LegacyHolder(ScratchObject field)
+        {
+            super(ScratchObjectArray.CLASS_ID);
+            this.field = field;
+        }
+
+        @Override
+        public boolean createReferences(ScratchReferenceTable ref, ScratchProject project)
+        {
+            if (!super.createReferences(ref, project)) {
+                return false;
+            }
+            field.createReferences(ref, project);
+            return true;
+        }
+
+        @Override
+        public void writeTo(ScratchOutputStream out, ScratchReferenceTable ref, ScratchProject project)
+                throws IOException
+        {
+            super.writeTo(out, ref, project);
+            out.write32bitUnsignedInt(1);
+            ref.writeField(field, out, project);
+        }
+    }
+
     @Test
     public void writesCorrectFormat() throws IOException
     {
@@ -46,6 +94,442 @@ public class ScratchObjectStoreTest
         }, bout.toByteArray());
     }
 
+    @Test
+    public void writesLargeStoresLikeSmallOnes() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectArray root = new ScratchObjectArray();
+        for (int i = 0; i < 2 * ScratchObjectStore.PARALLEL_THRESHOLD; ++i) {
+            ScratchObjectUtf8 str = new ScratchObjectUtf8("item " + i);
+            root.add(new ScratchObjectArray(Arrays.asList(str, str, root)));
+        }
+        ScratchObjectStore obj = new ScratchObjectStore(root);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        obj.writeTo(new ScratchOutputStream(bout), project);
+
+        // encode sequentially for comparison
+        ScratchReferenceTable ref = new ScratchReferenceTable();
+        root.createReferences(ref, project);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ScratchOutputStream out = new ScratchOutputStream(expected);
+        out.writeString(ScratchObjectStore.HEADER);
+        out.write32bitUnsignedInt(ref.size());
+        for (ScratchObject o : ref) {
+            o.writeTo(out, ref, project);
+        }
+
+        assertArrayEquals(expected.toByteArray(), bout.toByteArray());
+    }
+
+    @Test
+    public void readsLargeStoresFromBuffers() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectArray root = new ScratchObjectArray();
+        for (int i = 0; i < 2 * ScratchObjectStore.PARALLEL_THRESHOLD; ++i) {
+            ScratchObjectUtf8 str = new ScratchObjectUtf8("item " + i);
+            root.add(new ScratchObjectArray(Arrays.asList(str, str, root)));
+        }
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ScratchObjectStore(root).writeTo(new ScratchOutputStream(bout), project);
+        byte[] bytes = bout.toByteArray();
+
+        ScratchByteBufferInputStream in = new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes));
+        ScratchObjectStore read = ScratchObjectStore.readFrom(in, project);
+        assertEquals(bytes.length, in.getPosition());
+
+        ScratchObjectArray readRoot = (ScratchObjectArray) read.get();
+        assertEquals(root.size(), readRoot.size());
+        ScratchObjectArray first = (ScratchObjectArray) readRoot.get(0);
+        assertSame(first.get(0), first.get(1));
+        assertSame(readRoot, first.get(2));
+
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+        read.writeTo(new ScratchOutputStream(rewritten), project);
+        assertArrayEquals(bytes, rewritten.toByteArray());
+    }
+
+    @Test
+    public void readsRecordsInParallel() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectArray root = new ScratchObjectArray();
+        for (int i = 0; i < 3000; ++i) {
+            ScratchObjectDictionary dict = new ScratchObjectDictionary();
+            dict.put(new ScratchObjectUtf8("item " + i), new ScratchObjectPoint(i, -i));
+            dict.put(new ScratchObjectSymbol("color"), new ScratchObjectColor(i & 0xFF, 0, 0));
+            root.add(dict);
+            root.add(new ScratchObjectLargePositiveInteger(BigInteger.valueOf(i).shiftLeft(40)));
+        }
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ScratchObjectStore(root).writeTo(new ScratchOutputStream(bout), project);
+        byte[] bytes = bout.toByteArray();
+
+        ScratchInputStream expectedIn = new ScratchInputStream(new ByteArrayInputStream(bytes));
+        expectedIn.readString(10);
+        int size = expectedIn.read32bitUnsignedInt();
+
+        ScratchByteBufferInputStream in = new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes));
+        in.readString(10);
+        assertEquals(size, in.read32bitUnsignedInt());
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        List<ScratchObject> objects;
+        try {
+            objects = ScratchObjectStore.readObjectsParallel(in, size, project, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(bytes.length, in.getPosition());
+
+        assertEquals(size, objects.size());
+        for (ScratchObject obj : objects) {
+            ScratchObject expected = ScratchObjects.read(expectedIn, project).get();
+            assertEquals(expected.getClassID(), obj.getClassID());
+            if (expected instanceof ScratchObjectUtf8) {
+                assertEquals(((ScratchObjectUtf8) expected).getValue(), ((ScratchObjectUtf8) obj).getValue());
+            }
+        }
+    }
+
+    @Test
+    public void copiesUnmodifiedRecords() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectArray root = new ScratchObjectArray();
+        for (int i = 0; i < 10; ++i) {
+            root.add(new ScratchObjectArray(Arrays.asList(new ScratchObjectUtf8("item " + i))));
+        }
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ScratchObjectStore(root).writeTo(new ScratchOutputStream(bout), project);
+
+        ScratchByteBufferInputStream in = new ScratchByteBufferInputStream(ByteBuffer.wrap(bout.toByteArray()));
+        in.setRetainRecords(true);
+        ScratchObjectStore read = ScratchObjectStore.readFrom(in, project);
+        ScratchObjectArray readRoot = (ScratchObjectArray) read.get();
+        assertFalse(readRoot.isDirty());
+
+        ScratchObjectArray changed = (ScratchObjectArray) readRoot.get(3);
+        changed.add(new ScratchObjectUtf8("added"));
+        assertTrue(changed.isDirty());
+
+        ScratchReferenceTable ref = new ScratchReferenceTable();
+        readRoot.createReferences(ref, project);
+        List<ScratchObject> fields = new ArrayList<>();
+        assertNotNull(readRoot.get(2).getReusableSource(ref, project, fields));
+        assertNull(((ScratchObject) changed).getReusableSource(ref, project, fields));
+        // records following the added one have shifted their IDs, and so have
+        // the root's fields
+        assertNull(readRoot.get(4).getReusableSource(ref, project, fields));
+        assertNull(((ScratchObject) readRoot).getReusableSource(ref, project, fields));
+
+        // output equals a full encoding
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ScratchOutputStream out = new ScratchOutputStream(expected);
+        out.writeString(ScratchObjectStore.HEADER);
+        out.write32bitUnsignedInt(ref.size());
+        for (ScratchObject o : ref) {
+            o.writeTo(out, ref, project);
+        }
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        read.writeTo(new ScratchOutputStream(actual), project);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void writesObjectsMovedBetweenStores() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectArray root = new ScratchObjectArray();
+        for (int i = 0; i < 3; ++i) {
+            root.add(new ScratchObjectArray(Arrays.asList(new ScratchObjectUtf8("item " + i))));
+        }
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ScratchObjectStore(root).writeTo(new ScratchOutputStream(bout), project);
+        byte[] bytes = bout.toByteArray();
+
+        ScratchObjectStore[] stores = new ScratchObjectStore[2];
+        for (int i = 0; i < stores.length; ++i) {
+            ScratchByteBufferInputStream in = new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes));
+            in.setRetainRecords(true);
+            stores[i] = ScratchObjectStore.readFrom(in, project);
+        }
+
+        // swap the first element of one store for the second of the other,
+        // which keeps their IDs but not their stores
+        ScratchObjectArray target = (ScratchObjectArray) stores[0].get();
+        ScratchObjectArray moved = (ScratchObjectArray) ((ScratchObjectArray) stores[1].get()).get(1);
+        target.set(0, moved);
+        ((ScratchObjectArray) target.get(1)).set(0, ((ScratchObjectArray) stores[1].get()).get(1));
+
+        ScratchReferenceTable ref = new ScratchReferenceTable();
+        target.createReferences(ref, project);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ScratchOutputStream out = new ScratchOutputStream(expected);
+        out.writeString(ScratchObjectStore.HEADER);
+        out.write32bitUnsignedInt(ref.size());
+        for (ScratchObject o : ref) {
+            o.writeTo(out, ref, project);
+        }
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        stores[0].writeTo(new ScratchOutputStream(actual), project);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+        ScratchObjectArray reread = (ScratchObjectArray) ScratchObjectStore
+                .readFrom(new ScratchInputStream(new ByteArrayInputStream(actual.toByteArray())), project).get();
+        ScratchObjectArray first = (ScratchObjectArray) reread.get(0);
+        assertEquals("item 1", ((ScratchObjectUtf8) first.get(0)).getValue());
+        assertSame(first, ((ScratchObjectArray) reread.get(1)).get(0));
+    }
+
+    @Test
+    public void retainsRecordsOnlyOnRequest() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ScratchObjectStore(new ScratchObjectUtf8("root")).writeTo(new ScratchOutputStream(bout), project);
+
+        ScratchByteBufferInputStream in = new ScratchByteBufferInputStream(ByteBuffer.wrap(bout.toByteArray()));
+        assertFalse(in.isRetainRecords());
+        assertTrue(ScratchObjectStore.readFrom(in, project).get().isDirty());
+    }
+
+    @Test
+    public void tracksChangesThroughArraysAndViews() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectDictionary dict = new ScratchObjectDictionary();
+        dict.put(new ScratchObjectUtf8("a"), new ScratchObjectUtf8("1"));
+        dict.put(new ScratchObjectUtf8("b"), new ScratchObjectUtf8("2"));
+        ScratchObjectArray root = new ScratchObjectArray(
+                Arrays.asList(new ScratchObjectByteArray(new byte[] { 1, 2 }), dict));
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ScratchObjectStore(root).writeTo(new ScratchOutputStream(bout), project);
+        byte[] bytes = bout.toByteArray();
+
+        ScratchByteBufferInputStream in = new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes));
+        in.setRetainRecords(true);
+        ScratchObjectStore read = ScratchObjectStore.readFrom(in, project);
+        ScratchObjectArray readRoot = (ScratchObjectArray) read.get();
+
+        // reading through a buffer keeps the object clean
+        ScratchObjectByteArray readBytes = (ScratchObjectByteArray) readRoot.get(0);
+        assertEquals(2, readBytes.getBuffer().remaining());
+        assertFalse(readBytes.isDirty());
+
+        // handing out the array does not
+        readBytes.getValue()[0] = 42;
+        assertTrue(readBytes.isDirty());
+
+        ScratchObjectDictionary readDict = (ScratchObjectDictionary) readRoot.get(1);
+        assertFalse(readDict.isDirty());
+        for (ScratchObject key : readDict.keySet()) {
+            assertNotNull(key);
+        }
+        assertFalse(readDict.isDirty());
+
+        Entry<ScratchObject, ScratchObject> entry = readDict.entrySet().iterator().next();
+        entry.setValue(new ScratchObjectUtf8("3"));
+        assertTrue(readDict.isDirty());
+
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+        read.writeTo(new ScratchOutputStream(rewritten), project);
+
+        ScratchObjectStore reread = ScratchObjectStore
+                .readFrom(new ScratchInputStream(new ByteArrayInputStream(rewritten.toByteArray())), project);
+        ScratchObjectArray rereadRoot = (ScratchObjectArray) reread.get();
+        assertEquals(42, ((ScratchObjectByteArray) rereadRoot.get(0)).getValue()[0]);
+        ScratchObjectDictionary rereadDict = (ScratchObjectDictionary) rereadRoot.get(1);
+        assertEquals("3", ((ScratchObjectUtf8) rereadDict.values().iterator().next()).getValue());
+
+        // removals through views are tracked as well
+        in = new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes));
+        in.setRetainRecords(true);
+        ScratchObjectArray freshRoot = (ScratchObjectArray) ScratchObjectStore.readFrom(in, project).get();
+        ScratchObjectDictionary fresh = (ScratchObjectDictionary) freshRoot.get(1);
+        fresh.values().removeIf(value -> "2".equals(((ScratchObjectUtf8) value).getValue()));
+        assertTrue(fresh.isDirty());
+        assertEquals(1, fresh.size());
+    }
+
+    @Test
+    public void findsOrphansWithOverriddenCreateReferences()
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectUtf8 str = new ScratchObjectUtf8("a");
+        ScratchObjectArray child = new ScratchObjectArray(Collections.singletonList(str));
+        ScratchObjectArray orphan = new ScratchObjectArray();
+        List<ScratchObject> records = Arrays.asList(new LegacyHolder(child), child, str, orphan);
+
+        assertEquals(Collections.singletonList(orphan), ScratchObjectStore.resolve(records, project));
+    }
+
+    @Test
+    public void roundTripsOverriddenCreateReferences() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectArray root = new ScratchObjectArray();
+        for (int i = 0; i < 3; ++i) {
+            root.add(new ScratchObjectArray(Arrays.asList(new ScratchObjectUtf8("item " + i))));
+        }
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ScratchObjectStore(root).writeTo(new ScratchOutputStream(bout), project);
+
+        ScratchByteBufferInputStream in = new ScratchByteBufferInputStream(ByteBuffer.wrap(bout.toByteArray()));
+        in.setRetainRecords(true);
+        ScratchObjectStore read = ScratchObjectStore.readFrom(in, project);
+        ScratchObjectArray readRoot = (ScratchObjectArray) read.get();
+        LegacyHolder legacy = new LegacyHolder(new ScratchObjectUtf8("legacy"));
+        readRoot.add(1, legacy);
+
+        ScratchReferenceTable ref = new ScratchReferenceTable();
+        readRoot.createReferences(ref, project);
+        assertNull(((ScratchObject) legacy).getReusableSource(ref, project, new ArrayList<>()));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ScratchOutputStream out = new ScratchOutputStream(expected);
+        out.writeString(ScratchObjectStore.HEADER);
+        out.write32bitUnsignedInt(ref.size());
+        for (ScratchObject o : ref) {
+            o.writeTo(out, ref, project);
+        }
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        read.writeTo(new ScratchOutputStream(actual), project);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+        ScratchObjectStore reread = ScratchObjectStore
+                .readFrom(new ScratchInputStream(new ByteArrayInputStream(actual.toByteArray())), project);
+        assertTrue(reread.getOrphanedFields().isEmpty());
+        ScratchObjectArray rereadRoot = (ScratchObjectArray) reread.get();
+        assertEquals(4, rereadRoot.size());
+        ScratchObjectArray holder = (ScratchObjectArray) rereadRoot.get(1);
+        assertEquals("legacy", ((ScratchObjectUtf8) holder.get(0)).getValue());
+    }
+
+    @Test
+    public void findsOrphansInAnyRecordOrder() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        // encode root -> [x], x -> [y, z], z -> [w] with the records in the
+        // order root, w, orphan, y, z, x, so that x and z refer back to
+        // records already passed
+        ScratchObjectUtf8 y = new ScratchObjectUtf8("y"), w = new ScratchObjectUtf8("w");
+        ScratchObjectUtf8 orphan = new ScratchObjectUtf8("orphan");
+        ScratchObjectArray z = new ScratchObjectArray(Collections.singletonList(w));
+        ScratchObjectArray x = new ScratchObjectArray(Arrays.asList(y, z));
+        ScratchObjectArray root = new ScratchObjectArray(Collections.singletonList(x));
+        ScratchReferenceTable ref = new ScratchReferenceTable();
+        for (ScratchObject o : Arrays.asList(root, w, orphan, y, z, x)) {
+            ref.insert(o);
+        }
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ScratchOutputStream out = new ScratchOutputStream(bout);
+        out.writeString(ScratchObjectStore.HEADER);
+        out.write32bitUnsignedInt(ref.size());
+        for (ScratchObject o : ref) {
+            o.writeTo(out, ref, project);
+        }
+
+        ScratchObjectStore read = ScratchObjectStore
+                .readFrom(new ScratchInputStream(new ByteArrayInputStream(bout.toByteArray())), project);
+
+        assertEquals(1, read.getOrphanedFields().size());
+        assertEquals("orphan", ((ScratchObjectUtf8) read.getOrphanedFields().get(0)).getValue());
+    }
+
+    @Test
+    public void preservesReferenceIDs() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        // encode root -> [a, b] with the records in the order root, b, a
+        ScratchObjectUtf8 a = new ScratchObjectUtf8("a"), b = new ScratchObjectUtf8("b");
+        ScratchObjectArray root = new ScratchObjectArray(Arrays.asList(a, b));
+        ScratchReferenceTable ref = new ScratchReferenceTable();
+        ref.insert(root);
+        ref.insert(b);
+        ref.insert(a);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ScratchOutputStream out = new ScratchOutputStream(expected);
+        out.writeString(ScratchObjectStore.HEADER);
+        out.write32bitUnsignedInt(ref.size());
+        for (ScratchObject o : ref) {
+            o.writeTo(out, ref, project);
+        }
+        byte[] bytes = expected.toByteArray();
+
+        ScratchObjectStore read = ScratchObjectStore
+                .readFrom(new ScratchInputStream(new ByteArrayInputStream(bytes)), project);
+        assertTrue(read.getOrphanedFields().isEmpty());
+        assertFalse(read.isPreserveReferenceIDs());
+
+        ByteArrayOutputStream reordered = new ByteArrayOutputStream();
+        read.writeTo(new ScratchOutputStream(reordered), project);
+        assertFalse(Arrays.equals(bytes, reordered.toByteArray()));
+
+        read.setPreserveReferenceIDs(true);
+        ByteArrayOutputStream preserved = new ByteArrayOutputStream();
+        read.writeTo(new ScratchOutputStream(preserved), project);
+        assertArrayEquals(bytes, preserved.toByteArray());
+
+        // new objects are appended, removed ones are skipped
+        ScratchObjectArray readRoot = (ScratchObjectArray) read.get();
+        readRoot.remove(1);
+        readRoot.add(new ScratchObjectUtf8("c"));
+        ByteArrayOutputStream changed = new ByteArrayOutputStream();
+        read.writeTo(new ScratchOutputStream(changed), project);
+
+        ScratchObjectStoreIndex index = ScratchObjectStoreIndex
+                .build(new ScratchByteBufferInputStream(ByteBuffer.wrap(changed.toByteArray())), project);
+        assertEquals(3, index.size());
+        assertArrayEquals(new int[] { 2, 3 }, index.getReferences(1));
+        assertEquals(index.getLength(2), index.getLength(3));
+    }
+
+    @Test
+    public void writesDeeplyNestedObjects() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectArray root = new ScratchObjectArray();
+        ScratchObjectArray current = root;
+        for (int i = 0; i < 100_000; ++i) {
+            ScratchObjectArray next = new ScratchObjectArray();
+            current.add(next);
+            current = next;
+        }
+        ScratchObjectStore obj = new ScratchObjectStore(root);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        obj.writeTo(new ScratchOutputStream(bout), project);
+
+        ByteArrayInputStream bin = new ByteArrayInputStream(bout.toByteArray());
+        ScratchObjectStore read = ScratchObjectStore.readFrom(new ScratchInputStream(bin), project);
+
+        assertEquals(0, read.getOrphanedFields().size());
+    }
+
     @Test
     public void throwsWhenReadingIncorrectHeader()
     {
@@ -3,8 +3,10 @@ package scratchlib.objects;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.junit.jupiter.api.Test;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
 import scratchlib.project.ScratchProject;
 import scratchlib.project.ScratchVersion;
 import scratchlib.reader.ScratchInputStream;
@@ -32,6 +34,31 @@ public class ScratchObjectTest
         }
     }
 
+    /**
+     * Reports its field by overriding createReferences, as subclasses did
+     * before collectReferenceFields existed.
+     */
+    private static class LegacyReferenceType extends ReferenceType
+    {
+        private final ScratchObject field;
+
+        public LegacyReferenceType(ScratchObject field)
+        {
+            super(42);
+            this.field = field;
+        }
+
+        @Override
+        public boolean createReferences(ScratchReferenceTable ref, ScratchProject project)
+        {
+            if (!super.createReferences(ref, project)) {
+                return false;
+            }
+            field.createReferences(ref, project);
+            return true;
+        }
+    }
+
     @Test
     public void returnsClassID()
     {
@@ -77,4 +104,21 @@ public class ScratchObjectTest
             new ReferenceType(42).readFrom(37, in, project);
         });
     }
+
+    @Test
+    public void honorsOverriddenCreateReferences()
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ReferenceType field = new ReferenceType(42);
+        LegacyReferenceType legacy = new LegacyReferenceType(field);
+        ScratchObjectArray root = new ScratchObjectArray(Arrays.asList(legacy, new ReferenceType(42)));
+
+        ScratchReferenceTable table = new ScratchReferenceTable();
+        root.createReferences(table, project);
+
+        assertEquals(4, table.size());
+        assertEquals(2, table.lookup(legacy));
+        assertEquals(3, table.lookup(field));
+    }
 }
@@ -61,4 +61,38 @@ public class ScratchObjectsTest
             ScratchObjects.read(new ScratchInputStream(bin), project);
         });
     }
+
+    @Test
+    public void skipsObjects() throws IOException
+    {
+        byte[] bytes = {
+                // small integer, large positive integer, string
+                4, 0, 0, 0, 5,
+                6, 0, 2, 1, 2,
+                9, 0, 0, 0, 2, 'h', 'i',
+                // array with reference and nil, point with nested integers
+                20, 0, 0, 0, 2, 99, 0, 0, 1, 1,
+                32, 4, 0, 0, 0, 1, 5, 0, 2,
+                // user class (registered and unknown) with a single field
+                (byte) 124, 1, 1, 2,
+                (byte) 250, 3, 1, 9, 0, 0, 0, 0,
+                // end marker
+                42 };
+
+        ScratchInputStream in = new ScratchInputStream(new ByteArrayInputStream(bytes));
+        for (int i = 0; i < 7; ++i) {
+            ScratchObjects.skip(in);
+        }
+        assertEquals(42, in.read());
+    }
+
+    @Test
+    public void throwsWhenSkippingUnknownClassID()
+    {
+        ByteArrayInputStream bin = new ByteArrayInputStream(new byte[] { 50, 0, 0, 0, 0 });
+
+        assertThrows(IOException.class, () -> {
+            ScratchObjects.skip(new ScratchInputStream(bin));
+        });
+    }
 }
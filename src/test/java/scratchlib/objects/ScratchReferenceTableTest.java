@@ -40,4 +40,23 @@ public class ScratchReferenceTableTest
         assertFalse(obj.insert(arr));
         assertEquals(1, obj.size());
     }
+
+    @Test
+    public void looksUpInsertedObjects()
+    {
+        ScratchReferenceTable obj = new ScratchReferenceTable();
+
+        ScratchObjectArray arr0 = new ScratchObjectArray();
+        ScratchObjectArray arr1 = new ScratchObjectArray();
+        ScratchObjectArray arr2 = new ScratchObjectArray();
+
+        obj.insert(arr0);
+        obj.insert(arr1);
+        obj.insert(arr2);
+
+        assertEquals(1, obj.lookup(arr0));
+        assertEquals(2, obj.lookup(arr1));
+        assertEquals(3, obj.lookup(arr2));
+        assertSame(arr2, obj.lookup(3));
+    }
 }
@@ -3,11 +3,18 @@ package scratchlib.objects.fixed.data;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.jupiter.api.Test;
 import scratchlib.objects.ScratchReferenceTable;
 import scratchlib.project.ScratchProject;
 import scratchlib.project.ScratchVersion;
+import scratchlib.reader.ScratchByteBufferInputStream;
 import scratchlib.reader.ScratchInputStream;
 import scratchlib.writer.ScratchOutputStream;
 
@@ -25,6 +32,21 @@ public class ScratchObjectByteArrayTest
         assertSame(val, obj.getValue());
     }
 
+    @Test
+    public void acceptsNullAsEmpty() throws IOException
+    {
+        ScratchObjectByteArray obj = new ScratchObjectByteArray(null);
+
+        assertArrayEquals(new byte[0], obj.getValue());
+        assertEquals(0, obj.getByteLength());
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        obj.writeTo(new ScratchOutputStream(bout), new ScratchReferenceTable(),
+                new ScratchProject(ScratchVersion.SCRATCH14));
+
+        assertArrayEquals(new byte[] { 11, 0, 0, 0, 0 }, bout.toByteArray());
+    }
+
     @Test
     public void writesCorrectly() throws IOException
     {
@@ -66,4 +88,82 @@ public class ScratchObjectByteArrayTest
 
         assertArrayEquals(new byte[] { 42, 37, 0, (byte) 0xFF }, obj.getValue());
     }
+
+    @Test
+    public void writesSliceWithoutMaterializing() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectByteArray obj = new ScratchObjectByteArray();
+
+        ByteBuffer source = ByteBuffer.allocateDirect(7);
+        source.put(new byte[] {
+                // length
+                0, 0, 0, 3,
+                // values
+                1, 2, 3,
+                // end
+        }).flip();
+        obj.readFrom(11, new ScratchByteBufferInputStream(source), project);
+
+        assertEquals(3, obj.getByteLength());
+        assertTrue(obj.getBuffer().isReadOnly());
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        obj.writeTo(new ScratchOutputStream(bout), new ScratchReferenceTable(), project);
+
+        assertArrayEquals(new byte[] { 11, 0, 0, 0, 3, 1, 2, 3 }, bout.toByteArray());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, obj.getValue());
+    }
+
+    @Test
+    public void copiesFromHeapBuffers() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectByteArray obj = new ScratchObjectByteArray();
+
+        byte[] source = { 0, 0, 0, 3, 1, 2, 3 };
+        obj.readFrom(11, new ScratchByteBufferInputStream(ByteBuffer.wrap(source)), project);
+
+        // the payload must not be a view of the source
+        source[5] = 42;
+        assertArrayEquals(new byte[] { 1, 2, 3 }, obj.getValue());
+    }
+
+    @Test
+    public void returnsEmptyBufferWithoutValue()
+    {
+        ScratchObjectByteArray obj = new ScratchObjectByteArray();
+
+        assertEquals(0, obj.getBuffer().remaining());
+        assertEquals(0, obj.getByteLength());
+    }
+
+    @Test
+    public void materializesConcurrently() throws Exception
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int n = 0; n < 200; ++n) {
+                ByteBuffer source = ByteBuffer.allocateDirect(4 + 64);
+                source.putInt(64).flip().limit(68);
+
+                ScratchObjectByteArray obj = new ScratchObjectByteArray();
+                obj.readFrom(11, new ScratchByteBufferInputStream(source), project);
+
+                List<Future<Integer>> results = new ArrayList<>();
+                for (int t = 0; t < 4; ++t) {
+                    boolean array = t % 2 == 0;
+                    results.add(executor.submit(() -> array ? obj.getValue().length : obj.getBuffer().remaining()));
+                }
+                for (Future<Integer> result : results) {
+                    assertEquals(64, result.get());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -3,6 +3,10 @@ package scratchlib.objects.fixed.forms;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
 import org.junit.jupiter.api.Test;
 import scratchlib.objects.ScratchReferenceTable;
@@ -93,4 +97,59 @@ public class ScratchObjectFormTest
 
         assertSame(bits, obj.getBits());
     }
+
+    @Test
+    public void convertsStridedPixels()
+    {
+        // 5x4 pixels with a stride of 7, starting at index 3
+        int[] source = new int[3 + 3 * 7 + 5];
+        for (int y = 0; y < 4; ++y) {
+            for (int x = 0; x < 5; ++x) {
+                source[3 + y * 7 + x] = 0xFF000000 | (x * 0x40) << 8 | y * 0x40;
+            }
+        }
+
+        ScratchObjectForm obj = ScratchObjectForm.fromPixels(source, 3, 5, 4, 7);
+
+        int[] pixels = obj.getPixels();
+        assertEquals(20, pixels.length);
+        for (int y = 0; y < 4; ++y) {
+            for (int x = 0; x < 5; ++x) {
+                assertEquals(source[3 + y * 7 + x], pixels[y * 5 + x]);
+            }
+        }
+
+        int[] copy = new int[source.length];
+        Arrays.fill(copy, 0x12345678);
+        obj.getPixels(copy, 3, 7);
+        for (int i = 0; i < copy.length; ++i) {
+            int x = (i - 3) % 7;
+            assertEquals(i >= 3 && x < 5 ? source[i] : 0x12345678, copy[i]);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> obj.getPixels(new int[28], 3, 7));
+    }
+
+    @Test
+    public void convertsDirectBuffers()
+    {
+        IntBuffer source = ByteBuffer.allocateDirect(4 * 30).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        for (int i = 0; i < 30; ++i) {
+            source.put(i, (i % 7) < 5 ? 0xFF000000 | (i % 3) * 0x7F : 0);
+        }
+        source.position(2);
+
+        ScratchObjectForm obj = ScratchObjectForm.fromPixels(source, 5, 4, 7);
+        assertEquals(2, source.position());
+
+        IntBuffer copy = ByteBuffer.allocateDirect(4 * 30).asIntBuffer();
+        copy.position(2);
+        obj.getPixels(copy, 7);
+        assertEquals(2, copy.position());
+        for (int y = 0; y < 4; ++y) {
+            for (int x = 0; x < 5; ++x) {
+                assertEquals(source.get(2 + y * 7 + x), copy.get(2 + y * 7 + x));
+            }
+        }
+    }
 }
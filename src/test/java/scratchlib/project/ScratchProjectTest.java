@@ -3,7 +3,11 @@ package scratchlib.project;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import org.junit.jupiter.api.Test;
 import scratchlib.objects.ScratchObjectStore;
@@ -100,6 +104,25 @@ public class ScratchProjectTest
         assertEquals(bout.size(), header.length + infoLength.length + info.length + stage.length);
     }
 
+    @Test
+    public void writesSameBytesToChannel() throws IOException
+    {
+        ScratchProject obj = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        obj.writeTo(new ScratchOutputStream(bout));
+
+        Path file = Files.createTempFile("scratchlib", ".sb");
+        try {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                obj.writeTo(channel);
+            }
+            assertArrayEquals(bout.toByteArray(), Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
     private static void assertArrayRange(byte[] exp, byte[] act, int start)
     {
         for (int i = 0; i < exp.length; ++i) {
@@ -0,0 +1,122 @@
+package scratchlib.reader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scratchlib.project.ScratchProject;
+import scratchlib.project.ScratchVersion;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ScratchBatchReaderTest
+{
+    @TempDir
+    Path dir;
+
+    private void createFiles() throws IOException
+    {
+        Path source = Paths.get("./src/test/resources/empty.sb");
+        for (int i = 0; i < 10; ++i) {
+            Files.copy(source, dir.resolve(String.format("project%02d.sb", i)));
+        }
+        Files.write(dir.resolve("broken.sb"), new byte[] { 1, 2, 3 });
+        Files.write(dir.resolve("notes.txt"), new byte[] { 1, 2, 3 });
+    }
+
+    @Test
+    public void readsDirectoryInOrder() throws IOException, InterruptedException
+    {
+        createFiles();
+
+        ScratchBatchReader obj = new ScratchBatchReader(new ScratchReader());
+        obj.setMaxPending(3);
+
+        List<ScratchBatchReader.Result> results = new ArrayList<>();
+        ScratchBatchReader.Summary summary = obj.readAll(dir, results::add);
+
+        assertEquals(11, summary.getFiles());
+        assertEquals(1, summary.getFailures());
+        assertEquals(10 * Files.size(dir.resolve("project00.sb")), summary.getBytes());
+
+        assertEquals(11, results.size());
+        assertEquals("broken.sb", results.get(0).getPath().getFileName().toString());
+        assertFalse(results.get(0).isSuccess());
+        assertNotNull(results.get(0).getError());
+        for (int i = 1; i < results.size(); ++i) {
+            ScratchBatchReader.Result result = results.get(i);
+            assertEquals(String.format("project%02d.sb", i - 1), result.getPath().getFileName().toString());
+            assertTrue(result.isSuccess());
+            assertEquals(ScratchVersion.SCRATCH14, result.getProject().getVersion());
+        }
+    }
+
+    @Test
+    public void readsAsCompleted() throws IOException, InterruptedException
+    {
+        createFiles();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ScratchBatchReader obj = new ScratchBatchReader(new ScratchReader());
+            obj.setExecutor(executor);
+            obj.setOrdered(false);
+            obj.setMaxPending(2);
+
+            List<ScratchBatchReader.Result> results = new ArrayList<>();
+            ScratchBatchReader.Summary summary = obj.readAll(dir, results::add);
+
+            assertEquals(11, summary.getFiles());
+            assertEquals(1, summary.getFailures());
+            assertEquals(11, results.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void isolatesErrorsOfSingleFiles() throws IOException, InterruptedException
+    {
+        createFiles();
+
+        ScratchReader reader = new ScratchReader() {
+            @Override
+            public ScratchProject read(Path path) throws IOException
+            {
+                ScratchProject project = super.read(path);
+                if (path.getFileName().toString().equals("project03.sb")) {
+                    throw new InternalError("a fault occurred in an unsafe memory access operation");
+                }
+                return project;
+            }
+        };
+
+        List<ScratchBatchReader.Result> results = new ArrayList<>();
+        ScratchBatchReader.Summary summary = new ScratchBatchReader(reader).readAll(dir, results::add);
+
+        assertEquals(11, summary.getFiles());
+        assertEquals(2, summary.getFailures());
+
+        ScratchBatchReader.Result failed = results.get(4);
+        assertEquals("project03.sb", failed.getPath().getFileName().toString());
+        assertFalse(failed.isSuccess());
+        assertTrue(failed.getError().getCause() instanceof InternalError);
+        assertTrue(results.get(5).isSuccess());
+    }
+
+    @Test
+    public void throwsForIllegalMaxPending()
+    {
+        ScratchBatchReader obj = new ScratchBatchReader(new ScratchReader());
+
+        assertThrows(IllegalArgumentException.class, () -> obj.setMaxPending(0));
+    }
+}
@@ -0,0 +1,99 @@
+package scratchlib.reader;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ScratchByteBufferInputStreamTest
+{
+    @Test
+    public void readsBytes()
+    {
+        ScratchByteBufferInputStream obj = new ScratchByteBufferInputStream(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+
+        assertEquals(1, obj.read());
+        assertEquals(2, obj.read());
+        assertEquals(3, obj.read());
+        assertEquals(-1, obj.read());
+    }
+
+    @Test
+    public void skipsAndReturnsAvailable()
+    {
+        ScratchByteBufferInputStream obj = new ScratchByteBufferInputStream(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+
+        assertEquals(3, obj.available());
+        assertEquals(2, obj.skip(2));
+        assertEquals(1, obj.available());
+        assertEquals(1, obj.skip(5));
+        assertEquals(0, obj.available());
+    }
+
+    @Test
+    public void resets() throws IOException
+    {
+        ScratchByteBufferInputStream obj = new ScratchByteBufferInputStream(
+                ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 }));
+
+        assertTrue(obj.markSupported());
+
+        obj.skip(2);
+        obj.mark(10);
+        assertEquals(3, obj.read());
+        assertEquals(4, obj.read());
+
+        obj.reset();
+        assertEquals(3, obj.read());
+    }
+
+    @Test
+    public void readsFully() throws IOException
+    {
+        ScratchByteBufferInputStream obj = new ScratchByteBufferInputStream(
+                ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 }));
+
+        assertArrayEquals(new byte[] { 1, 2, 3 }, obj.readFully(3));
+        assertThrows(EOFException.class, () -> obj.readFully(3));
+    }
+
+    @Test
+    public void readsString() throws IOException
+    {
+        ByteBuffer direct = ByteBuffer.allocateDirect(7);
+        direct.put(new byte[] { 'x', 'H', 'e', 'l', 'l', 'o', 1 }).flip();
+        direct.get();
+
+        ScratchByteBufferInputStream obj = new ScratchByteBufferInputStream(direct);
+
+        assertEquals("Hello", obj.readString(5));
+        assertEquals(1, obj.read());
+    }
+
+    @Test
+    public void readsNumbers() throws IOException
+    {
+        ScratchByteBufferInputStream obj = new ScratchByteBufferInputStream(ByteBuffer.wrap(new byte[] {
+                // int32: -1
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                // int24: 2^24-1
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                // int16: 2^16-1
+                (byte) 0xFF, (byte) 0xFF,
+                // decimal: 1.2345
+                0x3F, (byte) 0xF3, (byte) 0xC0, (byte) 0x83, 0x12, 0x6E, (byte) 0x97, (byte) 0x8D,
+                // incomplete int32
+                0, 0,
+        }));
+
+        assertEquals(-1, obj.read32bitUnsignedInt());
+        assertEquals((1 << 24) - 1, obj.read24bitUnsignedInt());
+        assertEquals((1 << 16) - 1, obj.read16bitUnsignedInt());
+        assertEquals(1.2345, obj.read64bitDecimal(), 0.00000001);
+        assertThrows(EOFException.class, obj::read32bitUnsignedInt);
+    }
+}
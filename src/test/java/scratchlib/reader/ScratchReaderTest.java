@@ -2,12 +2,23 @@ package scratchlib.reader;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import scratchlib.objects.ScratchObject;
+import scratchlib.objects.ScratchObjectStoreIndex;
+import scratchlib.objects.fixed.data.ScratchObjectAbstractBytes;
 import scratchlib.objects.fixed.data.ScratchObjectAbstractString;
+import scratchlib.objects.fixed.data.ScratchObjectBitmap;
+import scratchlib.objects.fixed.data.ScratchObjectSoundBuffer;
 import scratchlib.project.ScratchProject;
 import scratchlib.project.ScratchVersion;
+import scratchlib.writer.ScratchWriter;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -29,6 +40,63 @@ public class ScratchReaderTest
         assertEquals("test project", ((ScratchObjectAbstractString) c).getValue());
     }
 
+    @Test
+    public void readsPath() throws IOException
+    {
+        ScratchReader obj = new ScratchReader();
+
+        ScratchProject proj = obj.read(Paths.get("./src/test/resources/empty.sb"));
+
+        assertNotNull(proj);
+        assertEquals(ScratchVersion.SCRATCH14, proj.getVersion());
+
+        ScratchObject c = proj.getInfoProperty(ScratchProject.INFO_COMMENT);
+        assertEquals("test project", ((ScratchObjectAbstractString) c).getValue());
+    }
+
+    @Test
+    public void readsPathWithLazyMedia(@TempDir Path dir) throws IOException
+    {
+        byte[] samples = new byte[4096];
+        byte[] pixels = new byte[1024];
+        for (int i = 0; i < samples.length; ++i) {
+            samples[i] = (byte) (i * 7);
+        }
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = (byte) (i * 13);
+        }
+
+        ScratchProject fixture = new ScratchReader().read(Paths.get("./src/test/resources/empty.sb"));
+        fixture.setInfoProperty("sound", new ScratchObjectSoundBuffer(samples));
+        fixture.setInfoProperty("bitmap", new ScratchObjectBitmap(pixels));
+        Path path = dir.resolve("media.sb");
+        new ScratchWriter(path.toFile()).write(fixture);
+
+        ScratchReader obj = new ScratchReader();
+        obj.setLazyMedia(true);
+
+        assertTrue(obj.isLazyMedia());
+
+        ScratchProject proj = obj.read(path);
+        ScratchProject eager = new ScratchReader().read(path);
+
+        assertNotNull(proj);
+        assertEquals(ScratchVersion.SCRATCH14, proj.getVersion());
+
+        ScratchObject c = proj.getInfoProperty(ScratchProject.INFO_COMMENT);
+        assertEquals("test project", ((ScratchObjectAbstractString) c).getValue());
+
+        for (String key : new String[] { "sound", "bitmap" }) {
+            ByteBuffer lazy = ((ScratchObjectAbstractBytes) proj.getInfoProperty(key)).getBuffer();
+            ByteBuffer loaded = ((ScratchObjectAbstractBytes) eager.getInfoProperty(key)).getBuffer();
+            assertTrue(lazy.isDirect(), key);
+            assertFalse(loaded.isDirect(), key);
+            assertEquals(loaded, lazy, key);
+        }
+        assertEquals(ByteBuffer.wrap(samples),
+                ((ScratchObjectAbstractBytes) proj.getInfoProperty("sound")).getBuffer());
+    }
+
     @Test
     public void readsInputStream() throws IOException
     {
@@ -42,4 +110,107 @@ public class ScratchReaderTest
         ScratchObject c = proj.getInfoProperty(ScratchProject.INFO_COMMENT);
         assertEquals("test project", ((ScratchObjectAbstractString) c).getValue());
     }
+
+    @Test
+    public void readsInfoFromPath() throws IOException
+    {
+        ScratchReader obj = new ScratchReader();
+
+        ScratchProject proj = obj.readInfo(Paths.get("./src/test/resources/empty.sb"));
+
+        assertNotNull(proj);
+        assertEquals(ScratchVersion.SCRATCH14, proj.getVersion());
+
+        ScratchObject c = proj.getInfoProperty(ScratchProject.INFO_COMMENT);
+        assertEquals("test project", ((ScratchObjectAbstractString) c).getValue());
+    }
+
+    @Test
+    public void readsInfoFromPathDespiteWrongSize(@TempDir Path dir) throws IOException
+    {
+        ScratchReader obj = new ScratchReader();
+        byte[] bytes = Files.readAllBytes(Paths.get("./src/test/resources/empty.sb"));
+
+        for (int size : new int[] { 0, 20, -1 }) {
+            bytes[10] = (byte) (size >>> 24);
+            bytes[11] = (byte) (size >>> 16);
+            bytes[12] = (byte) (size >>> 8);
+            bytes[13] = (byte) size;
+            Path path = dir.resolve("size" + size + ".sb");
+            Files.write(path, bytes);
+
+            ScratchProject proj = obj.readInfo(path);
+            ScratchObject c = proj.getInfoProperty(ScratchProject.INFO_COMMENT);
+            assertEquals("test project", ((ScratchObjectAbstractString) c).getValue());
+        }
+    }
+
+    @Test
+    public void readsInfoFromInputStream() throws IOException
+    {
+        ScratchReader obj = new ScratchReader();
+
+        ScratchProject proj = obj.readInfo(getClass().getClassLoader().getResourceAsStream("empty.sb"));
+
+        assertNotNull(proj);
+        assertEquals(ScratchVersion.SCRATCH14, proj.getVersion());
+
+        ScratchObject c = proj.getInfoProperty(ScratchProject.INFO_COMMENT);
+        assertEquals("test project", ((ScratchObjectAbstractString) c).getValue());
+    }
+
+    @Test
+    public void readsSingleObjectsThroughIndex() throws IOException
+    {
+        ScratchReader obj = new ScratchReader();
+        Path path = Paths.get("./src/test/resources/empty.sb");
+
+        ScratchObjectStoreIndex index = obj.indexStage(path);
+        assertTrue(index.size() > 0);
+
+        ScratchObject stage = obj.readObject(path, index, 1);
+        assertEquals(obj.read(path).getStage().getClassID(), stage.getClassID());
+        assertEquals(index.getClassID(1), stage.getClassID());
+    }
+
+    @Test
+    public void readsSingleObjectsThroughIndexLazily() throws IOException
+    {
+        ScratchReader obj = new ScratchReader();
+        obj.setLazyMedia(true);
+        Path path = Paths.get("./src/test/resources/empty.sb");
+
+        ScratchObjectStoreIndex index = obj.indexStage(path);
+        ScratchObject stage = obj.readObject(path, index, 1);
+        assertEquals(index.getClassID(1), stage.getClassID());
+    }
+
+    @Test
+    public void rejectsIndexOfOtherFile(@TempDir Path dir) throws IOException
+    {
+        ScratchReader obj = new ScratchReader();
+        Path path = Paths.get("./src/test/resources/empty.sb");
+        ScratchObjectStoreIndex index = obj.indexStage(path);
+
+        Path changed = dir.resolve("changed.sb");
+        Files.copy(path, changed);
+        Files.write(changed, new byte[1], StandardOpenOption.APPEND);
+
+        assertThrows(IOException.class, () -> obj.readObject(changed, index, 1));
+    }
+
+    @Test
+    public void readsWithStringPool() throws IOException
+    {
+        ScratchReader obj = new ScratchReader();
+        ScratchStringPool pool = new ScratchStringPool();
+        obj.setStringPool(pool);
+
+        assertSame(pool, obj.getStringPool());
+
+        ScratchProject proj = obj.read(Paths.get("./src/test/resources/empty.sb"));
+        ScratchObject c = proj.getInfoProperty(ScratchProject.INFO_COMMENT);
+        assertEquals("test project", ((ScratchObjectAbstractString) c).getValue());
+        assertTrue(pool.size() > 0);
+    }
 }
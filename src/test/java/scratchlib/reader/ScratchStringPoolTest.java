@@ -0,0 +1,93 @@
+package scratchlib.reader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ScratchStringPoolTest
+{
+    @Test
+    public void sharesDecodedStrings()
+    {
+        ScratchStringPool obj = new ScratchStringPool();
+
+        String a = obj.decode(ByteBuffer.wrap("forward:".getBytes(StandardCharsets.US_ASCII)),
+                StandardCharsets.US_ASCII);
+        String b = obj.decode(ByteBuffer.wrap("xforward:".getBytes(StandardCharsets.US_ASCII), 1, 8),
+                StandardCharsets.US_ASCII);
+
+        assertEquals("forward:", a);
+        assertSame(a, b);
+        assertEquals(1, obj.size());
+    }
+
+    @Test
+    public void keysOnCharset()
+    {
+        ScratchStringPool obj = new ScratchStringPool();
+        byte[] bytes = "ä".getBytes(StandardCharsets.UTF_8);
+
+        String utf8 = obj.decode(ByteBuffer.wrap(bytes), StandardCharsets.UTF_8);
+        String latin1 = obj.decode(ByteBuffer.wrap(bytes), StandardCharsets.ISO_8859_1);
+
+        assertEquals("ä", utf8);
+        assertEquals(2, latin1.length());
+        assertEquals(2, obj.size());
+    }
+
+    @Test
+    public void keepsBufferPosition()
+    {
+        ScratchStringPool obj = new ScratchStringPool();
+        ByteBuffer buffer = ByteBuffer.wrap("abc".getBytes(StandardCharsets.US_ASCII));
+
+        obj.decode(buffer, StandardCharsets.US_ASCII);
+        obj.decode(buffer, StandardCharsets.US_ASCII);
+
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void respectsLimits()
+    {
+        ScratchStringPool obj = new ScratchStringPool(1, 3);
+
+        String longA = obj.decode(ByteBuffer.wrap(new byte[] { 'l', 'o', 'n', 'g' }), StandardCharsets.US_ASCII);
+        String longB = obj.decode(ByteBuffer.wrap(new byte[] { 'l', 'o', 'n', 'g' }), StandardCharsets.US_ASCII);
+        assertEquals(longA, longB);
+        assertNotSame(longA, longB);
+        assertEquals(0, obj.size());
+
+        obj.decode(ByteBuffer.wrap(new byte[] { 'a' }), StandardCharsets.US_ASCII);
+        obj.decode(ByteBuffer.wrap(new byte[] { 'b' }), StandardCharsets.US_ASCII);
+        assertEquals(1, obj.size());
+
+        obj.clear();
+        assertEquals(0, obj.size());
+
+        assertThrows(IllegalArgumentException.class, () -> new ScratchStringPool(-1, 0));
+    }
+
+    @Test
+    public void isUsedByStreams() throws IOException
+    {
+        byte[] bytes = "abcabc".getBytes(StandardCharsets.US_ASCII);
+        ScratchStringPool pool = new ScratchStringPool();
+
+        ScratchInputStream in = new ScratchInputStream(new ByteArrayInputStream(bytes));
+        in.setStringPool(pool);
+        assertSame(pool, in.getStringPool());
+        assertSame(in.readString(3, StandardCharsets.US_ASCII), in.readString(3, StandardCharsets.US_ASCII));
+
+        ScratchByteBufferInputStream bin = new ScratchByteBufferInputStream(ByteBuffer.wrap(bytes));
+        bin.setStringPool(pool);
+        String first = bin.readString(3, StandardCharsets.US_ASCII);
+        assertSame(first, bin.duplicate(3).readString(3, StandardCharsets.US_ASCII));
+    }
+}
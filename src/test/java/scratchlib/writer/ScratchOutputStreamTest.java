@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -45,6 +46,26 @@ public class ScratchOutputStreamTest
         assertArrayEquals(new byte[] { 0x00, 0x7F, (byte) 0xFF, 0x01, 0x02 }, out.toByteArray());
     }
 
+    @Test
+    public void writesByteBuffers() throws IOException
+    {
+        MockOutputStream out = new MockOutputStream();
+
+        @SuppressWarnings("resource")
+        ScratchOutputStream obj = new ScratchOutputStream(out);
+
+        ByteBuffer heap = ByteBuffer.wrap(new byte[] { 0x00, 0x01, 0x02, 0x03 }, 1, 2);
+        ByteBuffer direct = ByteBuffer.allocateDirect(2).put((byte) 0x7F).put((byte) 0xFF);
+        direct.flip();
+
+        obj.write(heap);
+        obj.write(direct);
+
+        assertEquals(1, heap.position());
+        assertEquals(0, direct.position());
+        assertArrayEquals(new byte[] { 0x01, 0x02, 0x7F, (byte) 0xFF }, out.toByteArray());
+    }
+
     @Test
     public void flushes() throws IOException
     {
@@ -0,0 +1,112 @@
+package scratchlib.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scratchlib.project.ScratchProject;
+import scratchlib.project.ScratchVersion;
+import scratchlib.reader.ScratchReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+
+public class ScratchWriterTest
+{
+    @TempDir
+    Path dir;
+
+    private static byte[] getBytes(ScratchProject project) throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        project.writeTo(new ScratchOutputStream(bout));
+        return bout.toByteArray();
+    }
+
+    @Test
+    public void writesFile() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+        Path file = dir.resolve("project.sb");
+        Files.write(file, new byte[100_000]);
+
+        ScratchWriter obj = new ScratchWriter(file.toFile());
+        obj.write(project);
+
+        assertArrayEquals(getBytes(project), Files.readAllBytes(file));
+    }
+
+    @Test
+    public void writesFileAtomically() throws IOException
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.BYOB311);
+        Path file = dir.resolve("project.ypr");
+        Files.write(file, new byte[100_000]);
+
+        ScratchWriter obj = new ScratchWriter(file.toFile());
+        obj.setAtomic(true);
+        obj.setSync(true);
+
+        assertTrue(obj.isAtomic());
+        assertTrue(obj.isSync());
+
+        obj.write(project);
+
+        assertArrayEquals(getBytes(project), Files.readAllBytes(file));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void keepsPermissionsWhenWritingAtomically() throws IOException
+    {
+        Path file = dir.resolve("project.sb");
+        Files.write(file, new byte[10]);
+        PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+        assumeTrue(view != null);
+
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        view.setPermissions(permissions);
+
+        ScratchWriter obj = new ScratchWriter(file.toFile());
+        obj.setAtomic(true);
+        obj.write(new ScratchProject(ScratchVersion.SCRATCH14));
+
+        assertEquals(permissions, Files.getPosixFilePermissions(file));
+    }
+
+    @Test
+    public void replacesMappedFilesAtomically() throws IOException
+    {
+        Path file = dir.resolve("project.sb");
+        Files.copy(Paths.get("./src/test/resources/empty.sb"), file);
+
+        ScratchReader reader = new ScratchReader();
+        reader.setLazyMedia(true);
+        ScratchProject project = reader.read(file);
+        assertEquals(file, project.getMappedFile());
+
+        Object key = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        assumeTrue(key != null);
+
+        new ScratchWriter(file.toFile()).write(project);
+
+        assertNotEquals(key, Files.readAttributes(file, BasicFileAttributes.class).fileKey());
+        assertArrayEquals(getBytes(project), Files.readAllBytes(file));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+}